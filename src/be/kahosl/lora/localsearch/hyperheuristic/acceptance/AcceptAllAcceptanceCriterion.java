@@ -17,13 +17,18 @@ package be.kahosl.lora.localsearch.hyperheuristic.acceptance;
 
 import be.kahosl.lora.localsearch.move.Move;
 
-public class AcceptAllAcceptanceCriterion implements AcceptanceCriterion {
+public class AcceptAllAcceptanceCriterion implements AcceptanceCriterion, LongAcceptanceCriterion {
 
 	@Override
 	public boolean acceptMove(Move move,double newScore, double currentScore, double bestScore) {
 		return true;
 	}
 
+	@Override
+	public boolean acceptMove(Move move,long newScore, long currentScore, long bestScore) {
+		return true;
+	}
+
 	@Override
 	public String getShortName() {
 		return "AA";
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.lora.localsearch.hyperheuristic.acceptance;
+
+import be.kahosl.lora.localsearch.move.Move;
+
+/**
+ * Late acceptance for integer scores, same as {@link LateAcceptanceCriterion}
+ * but with the history in a long[]
+ */
+public class LongLateAcceptanceCriterion implements LongAcceptanceCriterion {
+
+	private long[] acceptanceList;
+	private int laListLength;
+	
+	private int placeToLook;
+	
+	private boolean isInitial;
+	
+	
+	public LongLateAcceptanceCriterion(int laListLength) {
+		acceptanceList=new long[laListLength];
+		this.laListLength=laListLength;
+		placeToLook=0;
+		isInitial=true;
+	}
+	
+	@Override
+	public boolean acceptMove(Move move,long newScore, long currentScore, long bestScore) {
+		boolean accept=false;
+
+		if (isInitial) {
+			isInitial = false;
+			for (int i = 0; i < laListLength; i++) {
+				acceptanceList[i] = bestScore;
+			}
+		}
+
+		if (newScore <= acceptanceList[placeToLook]) {
+			accept = true;
+			acceptanceList[placeToLook] = newScore;
+		} else
+			acceptanceList[placeToLook] = currentScore;
+
+		// walk the list cyclically without a modulo (and without overflowing the iteration count)
+		placeToLook++;
+		if (placeToLook == laListLength) placeToLook = 0;
+		
+		return accept;
+	}
+
+	@Override
+	public String getShortName() {
+		return "LA_"+laListLength;
+	}
+
+}
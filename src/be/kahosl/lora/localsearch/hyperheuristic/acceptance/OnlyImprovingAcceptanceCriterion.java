@@ -17,13 +17,18 @@ package be.kahosl.lora.localsearch.hyperheuristic.acceptance;
 
 import be.kahosl.lora.localsearch.move.Move;
 
-public class OnlyImprovingAcceptanceCriterion implements AcceptanceCriterion{
+public class OnlyImprovingAcceptanceCriterion implements AcceptanceCriterion, LongAcceptanceCriterion {
 
 	@Override
 	public boolean acceptMove(Move move,double newScore, double currentScore, double bestScore) {
 		return newScore<bestScore;
 	}
 
+	@Override
+	public boolean acceptMove(Move move,long newScore, long currentScore, long bestScore) {
+		return newScore<bestScore;
+	}
+
 	@Override
 	public String getShortName() {
 		return "OI";
@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.lora.localsearch.move;
+
+/**
+ * Receives the candidate moves of a {@link StreamingMoveFactory} one by one.
+ * A move is encoded in a long (see {@link PackedMove}), so no objects are
+ * created per candidate.
+ */
+public interface MoveVisitor {
+
+	/**
+	 * @param move the packed move
+	 * @param delta the change of the objective if the move would be applied
+	 */
+	public void visit(long move, long delta);
+
+	/**
+	 * Called once per neighbourhood with the number of moves the factory
+	 * evaluated, including the moves it passed. A factory that selects among
+	 * its candidates itself evaluates more moves than it passes.
+	 * @param nrOfMoves
+	 */
+	public void evaluated(int nrOfMoves);
+}
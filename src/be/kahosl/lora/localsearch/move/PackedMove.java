@@ -0,0 +1,38 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.lora.localsearch.move;
+
+/**
+ * Packs the two int components of a move (e.g. a process and a machine, or
+ * two processes) into a single long
+ */
+public final class PackedMove {
+
+	private PackedMove() {
+	}
+
+	public static long pack(int first, int second) {
+		return ((long) first << 32) | (second & 0xFFFFFFFFL);
+	}
+
+	public static int first(long move) {
+		return (int) (move >>> 32);
+	}
+
+	public static int second(long move) {
+		return (int) move;
+	}
+}
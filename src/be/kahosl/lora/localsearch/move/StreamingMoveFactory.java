@@ -0,0 +1,52 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.lora.localsearch.move;
+
+import be.kahosl.lora.localsearch.Solution;
+
+/**
+ * Move factory that streams its candidates, packed into longs and already
+ * evaluated, to a visitor instead of returning a list of move objects. A
+ * search engine can keep only the best candidate, so the search loop does not
+ * have to allocate anything.
+ */
+public interface StreamingMoveFactory<S extends Solution> {
+
+	/**
+	 * Generates the candidate moves for the solution and passes each of them,
+	 * with its delta, to the visitor. A factory that selects among its
+	 * candidates itself only passes the move it selected. Afterwards the
+	 * number of evaluated moves is reported to the visitor.
+	 * @param solution
+	 * @param visitor
+	 */
+	public void visitMoves(S solution, MoveVisitor visitor);
+
+	/**
+	 * Applies a packed move that was generated by this factory
+	 * @param solution
+	 * @param move
+	 */
+	public void doMove(S solution, long move);
+
+	/**
+	 * @param solution the solution the move was generated for, before the move
+	 *            is applied
+	 * @param move
+	 * @return the packed move as a move object, e.g. for listeners
+	 */
+	public Move<S> toMove(S solution, long move);
+}
@@ -15,7 +15,7 @@
  ******************************************************************************/
 package be.kahosl.lora.localsearch.termination;
 
-public class MaxEvaluationsTerminationCriterion implements TerminationCriterion {
+public class MaxEvaluationsTerminationCriterion implements TerminationCriterion, LongTerminationCriterion {
 
 	private long maxEvaluations;
 	
@@ -29,4 +29,10 @@ public class MaxEvaluationsTerminationCriterion implements TerminationCriterion
 		return objectiveFunctionEvaluations >= maxEvaluations;
 	}
 
+	@Override
+	public boolean isFinished(long currentIteration, long elapsedMilliSeconds,
+			long objectiveFunctionEvaluations, long currentObjective) {
+		return objectiveFunctionEvaluations >= maxEvaluations;
+	}
+
 }
@@ -16,7 +16,7 @@
 package be.kahosl.lora.localsearch.termination;
 
 public class MaxExecutionTimeTerminationCriterion implements
-		TerminationCriterion {
+		TerminationCriterion, LongTerminationCriterion {
 
 	private long maxElapsedMilliSeconds;
 	
@@ -30,4 +30,10 @@ public class MaxExecutionTimeTerminationCriterion implements
 		return elapsedMilliSeconds >= maxElapsedMilliSeconds;
 	}
 
+	@Override
+	public boolean isFinished(long currentIteration, long elapsedMilliSeconds,
+			long objectiveFunctionEvaluations, long currentObjective) {
+		return elapsedMilliSeconds >= maxElapsedMilliSeconds;
+	}
+
 }
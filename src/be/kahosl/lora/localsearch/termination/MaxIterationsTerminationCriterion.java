@@ -16,7 +16,7 @@
 package be.kahosl.lora.localsearch.termination;
 
 
-public class MaxIterationsTerminationCriterion implements TerminationCriterion {
+public class MaxIterationsTerminationCriterion implements TerminationCriterion, LongTerminationCriterion {
 
 	private long maxIterations;
 	
@@ -30,4 +30,10 @@ public class MaxIterationsTerminationCriterion implements TerminationCriterion {
 		return currentIteration >= maxIterations;
 	}
 
+	@Override
+	public boolean isFinished(long currentIteration, long elapsedMilliSeconds,
+			long objectiveFunctionEvaluations, long currentObjective) {
+		return currentIteration >= maxIterations;
+	}
+
 }
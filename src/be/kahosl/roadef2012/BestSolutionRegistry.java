@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the best solution offered by the workers of a portfolio, without
+ * locking: an offer replaces the current entry with a compare-and-set, and
+ * retries only if another worker got in between.
+ *
+ * A lower score wins, on equal scores the lowest worker index, so the result
+ * does not depend on the order in which the workers finish.
+ */
+final class BestSolutionRegistry {
+
+	private static final class Entry {
+
+		final long score;
+		final int worker;
+		final int[] solution;
+
+		Entry(long score, int worker, int[] solution) {
+			this.score = score;
+			this.worker = worker;
+			this.solution = solution;
+		}
+
+		boolean isBetterThan(Entry entry) {
+			return entry == null || score < entry.score || (score == entry.score && worker < entry.worker);
+		}
+	}
+
+	private final AtomicReference<Entry> best = new AtomicReference<Entry>();
+
+	/**
+	 * @param score
+	 * @param worker
+	 * @param solution
+	 * @return true if the solution is now the best one
+	 */
+	boolean offer(long score, int worker, int[] solution) {
+		Entry entry = new Entry(score, worker, solution);
+		while (true) {
+			Entry current = best.get();
+			if (!entry.isBetterThan(current))
+				return false;
+			if (best.compareAndSet(current, entry))
+				return true;
+		}
+	}
+
+	/**
+	 * @return the best solution offered so far, or null if there is none
+	 */
+	int[] getBestSolution() {
+		Entry entry = best.get();
+		return entry == null ? null : entry.solution;
+	}
+}
@@ -26,11 +26,11 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
-import be.kahosl.lora.localsearch.hyperheuristic.acceptance.AcceptanceCriterion;
-import be.kahosl.lora.localsearch.hyperheuristic.acceptance.LateAcceptanceCriterion;
+import be.kahosl.lora.localsearch.hyperheuristic.acceptance.LongAcceptanceCriterion;
+import be.kahosl.lora.localsearch.hyperheuristic.acceptance.LongLateAcceptanceCriterion;
 import be.kahosl.lora.localsearch.hyperheuristic.heuristicselection.HeuristicSelection;
 import be.kahosl.lora.localsearch.hyperheuristic.heuristicselection.RandomHeuristicSelection;
-import be.kahosl.lora.localsearch.move.MoveFactory;
+import be.kahosl.lora.localsearch.move.StreamingMoveFactory;
 import be.kahosl.lora.localsearch.termination.MaxExecutionTimeTerminationCriterion;
 import be.kahosl.roadef2012.lora.FastHyperHeuristic;
 import be.kahosl.roadef2012.lora.MRAPObjective;
@@ -39,6 +39,7 @@ import be.kahosl.roadef2012.lora.moves.ProbabilisticReAssignmentMoveFactoryFast;
 import be.kahosl.roadef2012.lora.moves.SwapMachineMoveFactory;
 import be.kahosl.roadef2012.model.AssignmentHelper;
 import be.kahosl.roadef2012.model.Problem;
+import be.kahosl.roadef2012.model.ProblemSnapshot;
 
 public class Main {
 
@@ -56,7 +57,9 @@ public class Main {
 		String instanceFileName="";
 		String originalSolutionFileName="";
 		String newSolutionFileName="";
+		String snapshotFileName="";
 		int seed=0;
+		int nrOfThreads=Math.max(2, Runtime.getRuntime().availableProcessors());
 		
 		
 		//read arguments
@@ -92,21 +95,39 @@ public class Main {
 				if (args.length==1) System.exit(0);
 				continue;
 			}
+			if (args[argPos].compareTo("-snapshot")==0){
+				snapshotFileName=args[argPos+1];
+				//System.out.println("Set snapshot filename to: "+snapshotFileName);
+				argPos+=2;
+				continue;
+			}
 			if (args[argPos].compareTo("-s")==0){
 				seed=Integer.parseInt(args[argPos+1]);
 				//System.out.println("Set seed to: "+seed);
 				argPos+=2;
 				continue;
 			}
+			if (args[argPos].compareTo("-threads")==0){
+				nrOfThreads=Integer.parseInt(args[argPos+1]);
+				if (nrOfThreads<1) throw new IllegalArgumentException("-threads must be at least 1");
+				//System.out.println("Set number of threads to: "+nrOfThreads);
+				argPos+=2;
+				continue;
+			}
 		}
 		
 		// load problem and initial assignment
 		Problem problem = Problem.loadProblem(new File(instanceFileName));		
 		int[] a0=AssignmentHelper.loadSolution(new File(originalSolutionFileName));
 		
+		// write a binary snapshot of the instance, which can be passed to -p in later runs
+		if (snapshotFileName.length()>0){
+			ProblemSnapshot.write(problem, new File(snapshotFileName));
+		}
+		
 
-		//run lateacceptance (two threads)
-		int[] solution = runLA(startTime, timeLimit*1000, seed, problem, a0);	
+		//run lateacceptance (one worker per thread)
+		int[] solution = runLA(startTime, timeLimit*1000, seed, nrOfThreads, problem, a0);	
 		
 		//write solution
 		File result = new File(newSolutionFileName);
@@ -116,97 +137,78 @@ public class Main {
 		
 	}
 
-	private static int[] runLA(final long startTime, final long timeLimit, final int seed,
+	// late acceptance configurations of the portfolio, the first two workers use the
+	// original pair (2000, 1) and (500, 1000), further workers cover the other combinations
+	private static final int[] LIST_LENGTHS = {2000, 500, 1000, 5000};
+	private static final int[] TOURNAMENT_FACTORS = {1, 1000, 10, 100};
+
+	/**
+	 * Runs a portfolio of late acceptance searches, one worker per thread, each
+	 * with its own configuration and random stream, and returns the best result.
+	 */
+	private static int[] runLA(final long startTime, final long timeLimit, final int seed, int nrOfThreads,
 			final Problem problem, final int[] a0) {
 		
 		// create threadpool
-		ExecutorService es = Executors.newFixedThreadPool(2);
+		ExecutorService es = Executors.newFixedThreadPool(nrOfThreads);
 		
-		// set params for different algorithm configurations
-		final int listLength1 = 2000, listLength2 = 500;
-		final int tf1 = 1, tf2 = 1000;
+		// the workers offer their result, the search maintains the best score exactly so no re-evaluation is needed
+		final BestSolutionRegistry registry = new BestSolutionRegistry();
 		
-		// first thread
-		Callable<int[]> run1 = new Callable<int[]>() {
-
-			@Override
-			public int[] call() throws Exception {
-				final Random rand1 = new Random(seed+1);
-
-				MRAPSolution initSol = new MRAPSolution(problem, a0);
-				AcceptanceCriterion acceptanceCriterion = new LateAcceptanceCriterion(listLength1);
-							
-				MRAPObjective objective = new MRAPObjective();
-				List<MoveFactory<MRAPSolution>> moveFactories = new ArrayList<MoveFactory<MRAPSolution>>();
-				
-				moveFactories.add(new SwapMachineMoveFactory(false, tf1, rand1));
-				moveFactories.add(new ProbabilisticReAssignmentMoveFactoryFast(tf1, rand1));
-						
-				HeuristicSelection hs = new RandomHeuristicSelection(rand1);
-
-				FastHyperHeuristic<MRAPSolution> hh = 
-						new FastHyperHeuristic<MRAPSolution>(moveFactories, hs	, acceptanceCriterion);
-				
-				long runtime = timeLimit-(System.currentTimeMillis()-startTime);
-				int[] sol = hh.startSearch(initSol, objective, new MaxExecutionTimeTerminationCriterion(runtime));	
-				
-				return sol;
-			}
-		};
+		// independent random streams, reproducible for a given seed
+		Random seeds = new Random(seed+1);
 		
-		// second thread
-		Callable<int[]> run2 = new Callable<int[]>() {
+		List<Future<int[]>> results = new ArrayList<Future<int[]>>();
+		for (int i = 0; i < nrOfThreads; i++) {
+			final int worker = i;
+			// cycle the list length one step further every round of tournament factors
+			final int listLength = LIST_LENGTHS[(i + i/TOURNAMENT_FACTORS.length) % LIST_LENGTHS.length];
+			final int tf = TOURNAMENT_FACTORS[i % TOURNAMENT_FACTORS.length];
+			final long workerSeed = seeds.nextLong();
 			
-			@Override
-			public int[] call() throws Exception {
-				final Random rand2 = new Random(seed+1);
+			results.add(es.submit(new Callable<int[]>() {
+
+				@Override
+				public int[] call() throws Exception {
+					final Random rand = new Random(workerSeed);
 
-				MRAPSolution initSol = new MRAPSolution(problem, a0);
-				AcceptanceCriterion acceptanceCriterion = new LateAcceptanceCriterion(listLength2);
+					MRAPSolution initSol = new MRAPSolution(problem, a0);
+					LongAcceptanceCriterion acceptanceCriterion = new LongLateAcceptanceCriterion(listLength);
+								
+					MRAPObjective objective = new MRAPObjective();
+					List<StreamingMoveFactory<MRAPSolution>> moveFactories = new ArrayList<StreamingMoveFactory<MRAPSolution>>();
+					
+					moveFactories.add(new SwapMachineMoveFactory(false, tf, rand));
+					moveFactories.add(new ProbabilisticReAssignmentMoveFactoryFast(tf, rand));
 							
-				MRAPObjective objective = new MRAPObjective();
-				List<MoveFactory<MRAPSolution>> moveFactories = new ArrayList<MoveFactory<MRAPSolution>>();
-				
-				moveFactories.add(new SwapMachineMoveFactory(false, tf2, rand2));
-				moveFactories.add(new ProbabilisticReAssignmentMoveFactoryFast(tf2, rand2));
-						
-				HeuristicSelection hs = new RandomHeuristicSelection(rand2);
+					HeuristicSelection hs = new RandomHeuristicSelection(rand);
 
-				FastHyperHeuristic<MRAPSolution> hh = 
-						new FastHyperHeuristic<MRAPSolution>(moveFactories, hs	, acceptanceCriterion);
-				
-				long runtime = timeLimit-(System.currentTimeMillis()-startTime);
-				int[] sol = hh.startSearch(initSol, objective, new MaxExecutionTimeTerminationCriterion(runtime));	
-				
-				return sol;
-			}
-		};
-		
-		Future<int[]> result1 = es.submit(run1);
-		Future<int[]> result2 = es.submit(run2);
-		try {
-			int[] sol1 = result1.get();
-			int[] sol2 = result2.get();
-			es.shutdown();
-			long score1 = AssignmentHelper.evaluate(problem, a0, sol1);
-			long score2 = AssignmentHelper.evaluate(problem, a0, sol2);
-			
-			// return best result out of the two threads
-			if(score1 < score2) {
-				return sol1;
-			} else {
-				return sol2;
+					FastHyperHeuristic<MRAPSolution> hh = 
+							new FastHyperHeuristic<MRAPSolution>(moveFactories, hs	, acceptanceCriterion);
+					
+					long runtime = timeLimit-(System.currentTimeMillis()-startTime);
+					int[] sol = hh.startSearch(initSol, objective, new MaxExecutionTimeTerminationCriterion(runtime));	
+					registry.offer(hh.getBestScore(), worker, sol);
+					
+					return sol;
+				}
+			}));
+		}
+		
+		// wait for all workers, a failing worker does not discard the results of the others
+		for (Future<int[]> result : results) {
+			try {
+				result.get();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			} catch (ExecutionException e) {
+				e.printStackTrace();
 			}
-			
-
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-		} catch (ExecutionException e) {
-			e.printStackTrace();
 		}
+		es.shutdown();
 		
-		// something wrong
-		return null;
+		// null if all workers failed
+		return registry.getBestSolution();
 		
 	}
 
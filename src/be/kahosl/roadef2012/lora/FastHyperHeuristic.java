@@ -16,47 +16,57 @@
 package be.kahosl.roadef2012.lora;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import be.kahosl.lora.localsearch.LocalSearchListener;
-import be.kahosl.lora.localsearch.hyperheuristic.acceptance.AcceptanceCriterion;
+import be.kahosl.lora.localsearch.LongLocalSearchListener;
+import be.kahosl.lora.localsearch.hyperheuristic.acceptance.LongAcceptanceCriterion;
 import be.kahosl.lora.localsearch.hyperheuristic.heuristicselection.HeuristicSelection;
 import be.kahosl.lora.localsearch.move.Move;
-import be.kahosl.lora.localsearch.move.MoveFactory;
-import be.kahosl.lora.localsearch.objective.ObjectiveFunction;
-import be.kahosl.lora.localsearch.termination.TerminationCriterion;
+import be.kahosl.lora.localsearch.move.MoveVisitor;
+import be.kahosl.lora.localsearch.move.StreamingMoveFactory;
+import be.kahosl.lora.localsearch.objective.LongObjectiveFunction;
+import be.kahosl.lora.localsearch.termination.LongTerminationCriterion;
 
+/**
+ * Hyper-heuristic for MRAP solutions. Scores are exact longs throughout:
+ * objective, acceptance, termination and listeners use the long variants of
+ * the lora interfaces. The neighbourhoods are streamed as packed moves and
+ * only the best one is kept, so the search loop does not allocate.
+ */
 public class FastHyperHeuristic <S extends MRAPSolution> {
 	
-	private List<LocalSearchListener<S>> listeners;
-	private List<MoveFactory<S>> moveFactoryList;
+	private List<LongLocalSearchListener<S>> listeners;
+	private List<? extends StreamingMoveFactory<S>> moveFactoryList;
 	private AtomicBoolean stopped;
 
 	private HeuristicSelection heuristicSelection;
-	private AcceptanceCriterion acceptanceCriterion;
+	private LongAcceptanceCriterion acceptanceCriterion;
 	
 	private boolean showScore;
 	private int scoreInterval;
 	private long currentIteration;
 	
+	private BestMoveVisitor bestMoveVisitor;
+	private long bestScore; // score of the best solution of the last search
+	
 	
 	public void setShowScore(boolean showScore, int scoreInterval){
 		this.showScore=showScore;
 		this.scoreInterval=scoreInterval;
 	}
 
-	public FastHyperHeuristic(List<MoveFactory<S>> moveFactoryList, HeuristicSelection heuristicSelection,
-			AcceptanceCriterion acceptanceCriterion) {
+	public FastHyperHeuristic(List<? extends StreamingMoveFactory<S>> moveFactoryList, HeuristicSelection heuristicSelection,
+			LongAcceptanceCriterion acceptanceCriterion) {
 		this.moveFactoryList = moveFactoryList;
 		this.stopped = new AtomicBoolean(true);
-		this.listeners = new ArrayList<LocalSearchListener<S>>();
+		this.listeners = new ArrayList<LongLocalSearchListener<S>>();
 		this.heuristicSelection=heuristicSelection;
 		heuristicSelection.setNrOfHeuristics(moveFactoryList.size());
 		this.acceptanceCriterion=acceptanceCriterion;
 		showScore=false;
 		scoreInterval=1;
+		bestMoveVisitor=new BestMoveVisitor();
 	}
 
 
@@ -64,15 +74,15 @@ public class FastHyperHeuristic <S extends MRAPSolution> {
 	
 	public int[] startSearch(
 			S initialSolution, 
-			ObjectiveFunction<S> objectiveFunction,
-			TerminationCriterion terminationCriterion) {
+			LongObjectiveFunction<S> objectiveFunction,
+			LongTerminationCriterion terminationCriterion) {
 		
 		//S bestSolution=(S)initialSolution.cloneSolution();
 		S currentSolution=(S)initialSolution.cloneSolution();
-		int[] bestSolution=currentSolution.getAssignment();
+		int[] bestSolution=currentSolution.getAssignment().clone();
 		
-		double bestScore= objectiveFunction.evaluate(currentSolution);
-		double currentScore = bestScore;
+		bestScore= objectiveFunction.evaluateAsLong(currentSolution);
+		long currentScore = bestScore;
 		
 		stopped.set(false);
 		
@@ -83,52 +93,46 @@ public class FastHyperHeuristic <S extends MRAPSolution> {
 		
 		
 		while(!stopped.get() && !terminationCriterion.isFinished(currentIteration, elapsedTime, objectiveFunctionEvaluations,currentScore)) {
-			for(LocalSearchListener<S> listener : listeners) {
+			for(LongLocalSearchListener<S> listener : listeners) {
 				listener.foundNewCurrentSolution(currentSolution,currentScore);
 			}
 			//selection
 			int heuristicNr = heuristicSelection.selectHeuristic(currentScore, bestScore);
-			MoveFactory<S> chosenHeuristic = moveFactoryList.get(heuristicNr);
+			StreamingMoveFactory<S> chosenHeuristic = moveFactoryList.get(heuristicNr);
 			
-			//best move in neighborhood generation
-			List<? extends Move<S>>  moves =  chosenHeuristic.createMoves(currentSolution);
-			if (moves == null || moves.isEmpty()) {
+			//best move in neighborhood generation, evaluated as the moves are generated
+			bestMoveVisitor.reset();
+			chosenHeuristic.visitMoves(currentSolution, bestMoveVisitor);
+			// a selecting factory passes one move, but reports all the moves it evaluated
+			objectiveFunctionEvaluations+=bestMoveVisitor.nrOfEvaluations;
+			if (bestMoveVisitor.nrOfMoves == 0) {
 				if (showScore) System.out.println("[Warning] No moves created for "+chosenHeuristic.toString());
 				continue;
 			}
 			
-			Move<S> bestMove = null;
-			double bestDeltaScore = Double.POSITIVE_INFINITY;
+			long bestMove = bestMoveVisitor.bestMove;
+			long bestDeltaScore = bestMoveVisitor.bestDelta;
+			long newScore=currentScore+bestDeltaScore;
 			
-			for(Move<S> move : moves) {
-				double deltaScore = objectiveFunction.evaluateDelta(currentSolution, currentScore, move);
-				objectiveFunctionEvaluations++;
-				
-				if(deltaScore < bestDeltaScore) {
-					bestMove = move;
-					bestDeltaScore = deltaScore;
-				}
-			}
+			// a move object is only needed for the listeners
+			Move<S> bestMoveObject = listeners.isEmpty() || newScore>=bestScore ? null : chosenHeuristic.toMove(currentSolution, bestMove);
 			
-			double newScore=currentScore+bestDeltaScore;
-			if(bestMove != null) {
-				if (acceptanceCriterion.acceptMove(bestMove,newScore, currentScore, bestScore)){
-					bestMove.doMove(currentSolution);
-					currentScore += bestDeltaScore;
-				}
-				if (newScore<bestScore){
-					bestScore=newScore;
-					
-					// don't do clone, just a fast copy of assignment array
-					bestSolution=Arrays.copyOf(currentSolution.getAssignment(), currentSolution.getAssignment().length);
-					for(LocalSearchListener<S> listener : listeners) {
-						listener.foundNewBestSolution(currentSolution,bestScore,bestMove);
-					}
+			// the long acceptance criteria only look at the scores
+			if (acceptanceCriterion.acceptMove(bestMoveObject,newScore, currentScore, bestScore)){
+				chosenHeuristic.doMove(currentSolution, bestMove);
+				// the solution maintains its objective, so the score can not drift
+				currentScore = currentSolution.getObjective();
+			}
+			if (newScore<bestScore){
+				bestScore=newScore;
+				
+				// don't do clone, just a fast copy of assignment array
+				System.arraycopy(currentSolution.getAssignment(), 0, bestSolution, 0, bestSolution.length);
+				for(LongLocalSearchListener<S> listener : listeners) {
+					listener.foundNewBestSolution(currentSolution,bestScore,bestMoveObject);
 				}
-				if (showScore && currentIteration%scoreInterval==0) System.out.println(currentIteration+" currentScore: "+currentScore+" bestScore: "+bestScore);
-			} else {
-				throw new RuntimeException("Best move was null!");
 			}
+			if (showScore && currentIteration%scoreInterval==0) System.out.println(currentIteration+" currentScore: "+currentScore+" bestScore: "+bestScore);
 			
 			elapsedTime = System.currentTimeMillis() - startTime;
 			currentIteration++;
@@ -136,17 +140,55 @@ public class FastHyperHeuristic <S extends MRAPSolution> {
 		return bestSolution;
 	}
 	
+	/**
+	 * @return the score of the best solution found by the last search
+	 */
+	public long getBestScore() {
+		return bestScore;
+	}
+	
 	public void stopSearch() {
 		stopped.set(true);	
 	}
 		
-	public void addLocalSearchListener(LocalSearchListener<S> listener) {
+	public void addLocalSearchListener(LongLocalSearchListener<S> listener) {
 		listeners.add(listener);
 		
 	}	
 	
-	public void setAcceptanceCriterion(AcceptanceCriterion acceptanceCriterion) {
+	public void setAcceptanceCriterion(LongAcceptanceCriterion acceptanceCriterion) {
 		this.acceptanceCriterion = acceptanceCriterion;
 	}
 
+	/**
+	 * Keeps the first move with the lowest delta of a neighbourhood
+	 */
+	private static class BestMoveVisitor implements MoveVisitor {
+		
+		private long bestMove;
+		private long bestDelta;
+		private int nrOfMoves;
+		private int nrOfEvaluations;
+		
+		void reset() {
+			bestDelta = Long.MAX_VALUE;
+			nrOfMoves = 0;
+			nrOfEvaluations = 0;
+		}
+		
+		@Override
+		public void visit(long move, long delta) {
+			nrOfMoves++;
+			if (delta < bestDelta) {
+				bestMove = move;
+				bestDelta = delta;
+			}
+		}
+		
+		@Override
+		public void evaluated(int nrOfMoves) {
+			nrOfEvaluations += nrOfMoves;
+		}
+	}
+
 }
@@ -16,11 +16,11 @@
 package be.kahosl.roadef2012.lora;
 
 import be.kahosl.lora.localsearch.move.Move;
-import be.kahosl.lora.localsearch.objective.ObjectiveFunction;
+import be.kahosl.lora.localsearch.objective.LongObjectiveFunction;
 import be.kahosl.roadef2012.lora.moves.SingleMachineReassignmentMove;
 import be.kahosl.roadef2012.model.AssignmentHelper;
 
-public class MRAPObjective implements ObjectiveFunction<MRAPSolution>{
+public class MRAPObjective implements LongObjectiveFunction<MRAPSolution>{
 
 	private int nrOfEvaluations;
 	
@@ -30,12 +30,23 @@ public class MRAPObjective implements ObjectiveFunction<MRAPSolution>{
 	
 	@Override
 	public double evaluate(MRAPSolution solution) {
+		return evaluateAsLong(solution);
+	}
+
+	@Override
+	public double evaluateDelta(MRAPSolution solution, double currentValue,
+			Move<MRAPSolution> move) {
+		return evaluateDeltaAsLong(solution, (long) currentValue, move);
+	}
+	
+	@Override
+	public long evaluateAsLong(MRAPSolution solution) {
 		nrOfEvaluations++;
 		return AssignmentHelper.evaluate(solution.getProblem(), solution.getInitialAssignment(), solution.getAssignment());
 	}
 
 	@Override
-	public double evaluateDelta(MRAPSolution solution, double currentValue,
+	public long evaluateDeltaAsLong(MRAPSolution solution, long currentValue,
 			Move<MRAPSolution> move) {
 		MRAPMove mrapMove=(MRAPMove) move;
 		nrOfEvaluations++;
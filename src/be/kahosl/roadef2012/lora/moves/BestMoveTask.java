@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.lora.moves;
+
+import java.util.concurrent.RecursiveTask;
+
+import be.kahosl.roadef2012.lora.MRAPSolution;
+
+/**
+ * Fork-join search for the best move of a full neighbourhood. The range (of
+ * processes or machines) is split in halves until it is small enough, each leaf
+ * searches its range against the solution, which is only read, and keeps its
+ * best move.
+ *
+ * The halves are reduced with the left one winning ties, so the result is the
+ * first best move in enumeration order, the same move a sequential search
+ * with a strict improvement test finds, whatever the number of threads.
+ */
+abstract class BestMoveTask extends RecursiveTask<BestMoveTask.BestMove> {
+
+	private static final long serialVersionUID = 1L;
+
+	protected final MRAPSolution solution;
+	private final int from;
+	private final int to;
+	protected final int threshold;
+
+	BestMoveTask(MRAPSolution solution, int from, int to, int threshold) {
+		this.solution = solution;
+		this.from = from;
+		this.to = to;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Searches the moves of the processes in [from, to) in enumeration order
+	 */
+	protected abstract void search(int from, int to, BestMove best);
+
+	protected abstract BestMoveTask subtask(int from, int to);
+
+	@Override
+	protected BestMove compute() {
+		if (to - from <= threshold) {
+			BestMove best = new BestMove();
+			search(from, to, best);
+			return best;
+		}
+
+		int mid = (from + to) >>> 1;
+		BestMoveTask left = subtask(from, mid);
+		BestMoveTask right = subtask(mid, to);
+		left.fork();
+		BestMove rightBest = right.compute();
+		BestMove leftBest = left.join();
+		BestMove best = leftBest.delta <= rightBest.delta ? leftBest : rightBest;
+		best.nrOfEvaluations = leftBest.nrOfEvaluations + rightBest.nrOfEvaluations;
+		return best;
+	}
+
+	/**
+	 * @return a range size that gives every thread of the pool a number of
+	 *         leaves to balance the load with
+	 */
+	static int threshold(int nrOfProcesses, int parallelism) {
+		return Math.max(1, nrOfProcesses / (16 * parallelism));
+	}
+
+	static final class BestMove {
+
+		long move;
+		long delta = Long.MAX_VALUE;
+		int nrOfEvaluations; // moves evaluated in the range, counted by search
+
+		boolean isFound() {
+			return delta != Long.MAX_VALUE;
+		}
+
+		void offer(long move, long delta) {
+			if (delta < this.delta) {
+				this.move = move;
+				this.delta = delta;
+			}
+		}
+	}
+}
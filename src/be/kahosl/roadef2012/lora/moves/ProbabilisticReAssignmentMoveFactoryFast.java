@@ -18,18 +18,23 @@ package be.kahosl.roadef2012.lora.moves;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
-import java.util.Set;
 
 import be.kahosl.lora.localsearch.move.Move;
 import be.kahosl.lora.localsearch.move.MoveFactory;
+import be.kahosl.lora.localsearch.move.MoveVisitor;
+import be.kahosl.lora.localsearch.move.PackedMove;
+import be.kahosl.lora.localsearch.move.StreamingMoveFactory;
 import be.kahosl.roadef2012.lora.MRAPSolution;
-import be.kahosl.roadef2012.model.Problem;
 
-public class ProbabilisticReAssignmentMoveFactoryFast implements MoveFactory<MRAPSolution> {
+public class ProbabilisticReAssignmentMoveFactoryFast implements MoveFactory<MRAPSolution>, StreamingMoveFactory<MRAPSolution> {
 	
 	private int tournamentFactor;
 	private Random rand;
 	
+	// the candidates of a tournament, evaluated against the solution of the evaluator
+	private final Tournament tournament=new Tournament();
+	private final ReassignmentEvaluator evaluator=new ReassignmentEvaluator();
+	
 	public ProbabilisticReAssignmentMoveFactoryFast() {
 	}
 	
@@ -39,73 +44,81 @@ public class ProbabilisticReAssignmentMoveFactoryFast implements MoveFactory<MRA
 	}
 
 	@Override
-	public List<? extends Move<MRAPSolution>> createMoves(MRAPSolution solution) {
-		List<Move<MRAPSolution>> moveList=new ArrayList<Move<MRAPSolution>>();
-		Problem problem = solution.getProblem();
-		
-		// determine quadratic overload cost per machine (delta based)
-		long[] cost = new long[problem.nrMachines];
-		long totalCost = 0;
-		
-		for(int m = 0; m<problem.nrMachines; m++) {
-			for(int r = 0; r<problem.nrResources; r++) {
-				long d =  solution.getQuadraticOverload()[m][r]+1;
-				totalCost+=d;
-				cost[m] += d;
+	public List<? extends Move<MRAPSolution>> createMoves(final MRAPSolution solution) {
+		final List<Move<MRAPSolution>> moveList=new ArrayList<Move<MRAPSolution>>();
+		visitMoves(solution, new MoveVisitor() {
+			@Override
+			public void visit(long move, long delta) {
+				moveList.add(toMove(solution, move));
 			}
-		}
 
-		
-		// select probabilistic moves
+			@Override
+			public void evaluated(int nrOfMoves) {
+			}
+		});
+		return moveList;
+	}
+
+	@Override
+	public void visitMoves(MRAPSolution solution, MoveVisitor visitor) {
+		// select probabilistic moves, only the best feasible one is passed to the visitor
+		evaluator.solution=solution;
+		int nrOfEvaluations=0;
+		boolean selected;
 		do {
-			// roulette wheel select a problematic machine
-			int machine=rouletteWheel(cost,totalCost);
-			Set<Integer> processes = solution.getMachineToProcMap().get(machine);
-			for(int p : processes) {
+			tournament.clear();
+			while(tournament.size()<tournamentFactor) {
+				// roulette wheel select a problematic machine, the solution maintains the overload weights
+				int machine=solution.selectMachineByOverload(rand);
+				int nrOfProcesses=solution.getNrOfProcessesOnMachine(machine);
 				
-				// find anohter random machine, not equal to the already selected one, to move the process to
-				int m = machine;
-				do {
-					m = rand.nextInt(problem.nrMachines);
+				// start at a random process and stop at the tournament size, which
+				// replaces removing random moves from an oversized list
+				int offset = nrOfProcesses>0 ? rand.nextInt(nrOfProcesses) : 0;
+				for(int i = 0; i<nrOfProcesses && tournament.size()<tournamentFactor; i++) {
+					int p = solution.getProcessOnMachine(machine, (offset+i)%nrOfProcesses);
+					
+					// find another random machine that is likely to have room for the process
+					int m = solution.sampleTargetMachine(p, rand);
+					if (m==machine || !solution.tryMachineByCapacity(p, m)) continue;
+					
+					// the other constraints are only checked for the candidates that can win
+					tournament.add(PackedMove.pack(p, m), solution.evaluateDeltaLowerBound(p, m));
 				}
-				while(m==machine);
-				
-				// check feasibilty of the move
-				if (solution.tryMachineByCapacity(p, m) && solution.tryMachineByConflict(p, m) && solution.tryMachineByDependency(p, m) && solution.tryMachineBySpread(p, m)){
-					moveList.add(new SingleMachineReassignmentMove(p, m));
-				}
-			}
-			
-			// if we selected to many moves, delete the remainder
-			int toMany = Math.max(0, moveList.size()-tournamentFactor);
-			for (int i=0;i<toMany;i++){
-				moveList.remove(rand.nextInt(moveList.size()));
 			}
-			
-		}while(moveList.size()<tournamentFactor);
-		
-		
-		return moveList;
+			selected=tournament.select(evaluator);
+			nrOfEvaluations+=tournament.nrOfEvaluations;
+		}while(!selected);
+		visitor.visit(tournament.bestMove, tournament.bestDelta);
+		visitor.evaluated(nrOfEvaluations);
+	}
+
+	@Override
+	public void doMove(MRAPSolution solution, long move) {
+		solution.doMove(PackedMove.first(move), PackedMove.second(move));
+	}
+
+	@Override
+	public Move<MRAPSolution> toMove(MRAPSolution solution, long move) {
+		return new SingleMachineReassignmentMove(PackedMove.first(move), PackedMove.second(move));
 	}
 	
-	/**
-	 * Roulette wheel selection using absolute values (which is faster than with probabilities between 0 and 1.0)
-	 * @param costs
-	 * @param totalcost
-	 * @return
-	 */
-	private int rouletteWheel(long[] costs, long totalcost){
-		// return action with highest probability
-		long randomProb = (long)(rand.nextDouble()*totalcost);
-		long cumProb = 0; 
-		for (int i = 0; i < costs.length; i++) {
-			if (cumProb <= randomProb
-					&& randomProb <= cumProb + costs[i]) {
-				return i;
-			}
-			cumProb = cumProb + costs[i];
+	private static class ReassignmentEvaluator implements Tournament.Evaluator {
+		
+		MRAPSolution solution;
+		
+		@Override
+		public long evaluateDelta(long move) {
+			return solution.evaluateDelta(PackedMove.first(move), PackedMove.second(move));
+		}
+		
+		// the capacity is checked when the candidate is drawn
+		@Override
+		public boolean isFeasible(long move) {
+			int p=PackedMove.first(move);
+			int m=PackedMove.second(move);
+			return solution.tryMachineByConflict(p, m) && solution.tryMachineByDependency(p, m) && solution.tryMachineBySpread(p, m);
 		}
-		return 0;
 	}
 
 }
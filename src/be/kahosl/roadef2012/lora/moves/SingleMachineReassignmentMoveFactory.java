@@ -18,23 +18,47 @@ package be.kahosl.roadef2012.lora.moves;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import be.kahosl.lora.localsearch.move.Move;
 import be.kahosl.lora.localsearch.move.MoveFactory;
+import be.kahosl.lora.localsearch.move.MoveVisitor;
+import be.kahosl.lora.localsearch.move.PackedMove;
+import be.kahosl.lora.localsearch.move.StreamingMoveFactory;
 import be.kahosl.roadef2012.lora.MRAPSolution;
+import be.kahosl.roadef2012.lora.moves.BestMoveTask.BestMove;
 import be.kahosl.roadef2012.model.Problem;
 
+/**
+ * Moves a single process to another machine. Packed moves are (process,
+ * machine) pairs.
+ */
 public class SingleMachineReassignmentMoveFactory implements
-		MoveFactory<MRAPSolution> {
+		MoveFactory<MRAPSolution>, StreamingMoveFactory<MRAPSolution> {
 
 	private boolean fullneighborhood;
 	private int tournamentFactor;
 	private Random rand;
+	private ForkJoinPool pool;
+	
+	// the candidates of a sampled tournament, evaluated against the solution of the evaluator
+	private final Tournament tournament = new Tournament();
+	private final ReassignmentEvaluator evaluator = new ReassignmentEvaluator();
 
 	public SingleMachineReassignmentMoveFactory() {
 		fullneighborhood = true;
 	}
 
+	/**
+	 * Full neighbourhood, searched in parallel on the pool. Only the best move
+	 * of the neighbourhood is passed to the visitor.
+	 * @param pool
+	 */
+	public SingleMachineReassignmentMoveFactory(ForkJoinPool pool) {
+		fullneighborhood = true;
+		this.pool = pool;
+	}
+
 	public SingleMachineReassignmentMoveFactory(boolean fullNeighborhood,
 			int tournamentFactor, Random rand) {
 		this.fullneighborhood = fullNeighborhood;
@@ -43,45 +67,131 @@ public class SingleMachineReassignmentMoveFactory implements
 	}
 
 	@Override
-	public List<? extends Move<MRAPSolution>> createMoves(MRAPSolution solution) {
-		List<Move<MRAPSolution>> moveList = new ArrayList<Move<MRAPSolution>>();
+	public List<? extends Move<MRAPSolution>> createMoves(final MRAPSolution solution) {
+		final List<Move<MRAPSolution>> moveList = new ArrayList<Move<MRAPSolution>>();
+		visitMoves(solution, new MoveVisitor() {
+			@Override
+			public void visit(long move, long delta) {
+				moveList.add(toMove(solution, move));
+			}
+
+			@Override
+			public void evaluated(int nrOfMoves) {
+			}
+		});
+		return moveList;
+	}
+
+	@Override
+	public void visitMoves(MRAPSolution solution, MoveVisitor visitor) {
 		Problem problem = solution.getProblem();
+		int[] assignment = solution.getAssignment();
 
-		if (fullneighborhood) {
+		if (fullneighborhood && pool != null) {
+			BestMove best = pool.invoke(new ReassignmentTask(solution, 0, problem.nrProcesses,
+					BestMoveTask.threshold(problem.nrProcesses, pool.getParallelism())));
+			if (best.isFound()) {
+				visitor.visit(best.move, best.delta);
+			}
+			visitor.evaluated(best.nrOfEvaluations);
+		} else if (fullneighborhood) {
+			int nrOfEvaluations = 0;
 			for (int p = 0; p < problem.nrProcesses; p++) {
 				for (int m = 0; m < problem.nrMachines; m++) {
-					if (solution.getAssignment()[p] != m) {
-						// check feasibility
-						if (solution.tryMachineByCapacity(p, m)
-								&& solution.tryMachineByConflict(p, m)
-								&& solution.tryMachineByDependency(p, m)
-								&& solution.tryMachineBySpread(p, m)) {
-							moveList.add(new SingleMachineReassignmentMove(p, m));
-						}
+					if (assignment[p] != m && isFeasible(solution, p, m)) {
+						visitor.visit(PackedMove.pack(p, m), solution.evaluateDelta(p, m));
+						nrOfEvaluations++;
 					}
 				}
 			}
+			visitor.evaluated(nrOfEvaluations);
 		} else {
-			// random samples
+			// random samples that fit capacity wise, only the best feasible one is passed to the visitor
+			evaluator.solution = solution;
+			int nrOfEvaluations = 0;
+			boolean selected;
 			do {
-				int p = rand.nextInt(problem.nrProcesses);
-				int m = 0;
-				do {
-					m = rand.nextInt(problem.nrMachines);
-				} while (m == solution.getAssignment()[p]);
-
-				// check feasibility of move
-				if (solution.tryMachineByCapacity(p, m)
-						&& solution.tryMachineByConflict(p, m)
-						&& solution.tryMachineByDependency(p, m)
-						&& solution.tryMachineBySpread(p, m)) {
-					moveList.add(new SingleMachineReassignmentMove(p, m));
+				tournament.clear();
+				while (tournament.size() < tournamentFactor) {
+					int p = rand.nextInt(problem.nrProcesses);
+					// a machine that is likely to have room for the process
+					int m = solution.sampleTargetMachine(p, rand);
+
+					if (m != assignment[p] && solution.tryMachineByCapacity(p, m)) {
+						tournament.add(PackedMove.pack(p, m), solution.evaluateDeltaLowerBound(p, m));
+					}
 				}
+				selected = tournament.select(evaluator);
+				nrOfEvaluations += tournament.nrOfEvaluations;
+			} while (!selected);
+			visitor.visit(tournament.bestMove, tournament.bestDelta);
+			visitor.evaluated(nrOfEvaluations);
+		}
+	}
 
-			} while (moveList.size() < tournamentFactor);
+	@Override
+	public void doMove(MRAPSolution solution, long move) {
+		solution.doMove(PackedMove.first(move), PackedMove.second(move));
+	}
+
+	@Override
+	public Move<MRAPSolution> toMove(MRAPSolution solution, long move) {
+		return new SingleMachineReassignmentMove(PackedMove.first(move), PackedMove.second(move));
+	}
+
+	private static boolean isFeasible(MRAPSolution solution, int p, int m) {
+		return solution.tryMachineByCapacity(p, m)
+				&& solution.tryMachineByConflict(p, m)
+				&& solution.tryMachineByDependency(p, m)
+				&& solution.tryMachineBySpread(p, m);
+	}
+
+	private static class ReassignmentEvaluator implements Tournament.Evaluator {
+
+		MRAPSolution solution;
+
+		@Override
+		public long evaluateDelta(long move) {
+			return solution.evaluateDelta(PackedMove.first(move), PackedMove.second(move));
 		}
 
-		return moveList;
+		// the capacity is checked when the candidate is drawn
+		@Override
+		public boolean isFeasible(long move) {
+			int p = PackedMove.first(move);
+			int m = PackedMove.second(move);
+			return solution.tryMachineByConflict(p, m)
+					&& solution.tryMachineByDependency(p, m)
+					&& solution.tryMachineBySpread(p, m);
+		}
+	}
+
+	private static class ReassignmentTask extends BestMoveTask {
+
+		private static final long serialVersionUID = 1L;
+
+		ReassignmentTask(MRAPSolution solution, int from, int to, int threshold) {
+			super(solution, from, to, threshold);
+		}
+
+		@Override
+		protected void search(int from, int to, BestMove best) {
+			int[] assignment = solution.getAssignment();
+			int nrMachines = solution.getProblem().nrMachines;
+			for (int p = from; p < to; p++) {
+				for (int m = 0; m < nrMachines; m++) {
+					if (assignment[p] != m && isFeasible(solution, p, m)) {
+						best.offer(PackedMove.pack(p, m), solution.evaluateDelta(p, m));
+						best.nrOfEvaluations++;
+					}
+				}
+			}
+		}
+
+		@Override
+		protected BestMoveTask subtask(int from, int to) {
+			return new ReassignmentTask(solution, from, to, threshold);
+		}
 	}
 
 }
@@ -18,22 +18,54 @@ package be.kahosl.roadef2012.lora.moves;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import be.kahosl.lora.localsearch.move.Move;
 import be.kahosl.lora.localsearch.move.MoveFactory;
+import be.kahosl.lora.localsearch.move.MoveVisitor;
+import be.kahosl.lora.localsearch.move.PackedMove;
+import be.kahosl.lora.localsearch.move.StreamingMoveFactory;
 import be.kahosl.roadef2012.lora.MRAPSolution;
+import be.kahosl.roadef2012.lora.moves.BestMoveTask.BestMove;
 import be.kahosl.roadef2012.model.Problem;
 
-public class SwapMachineMoveFactory implements MoveFactory<MRAPSolution> {
+/**
+ * Swaps the machines of two processes. Packed moves are (process, process)
+ * pairs, the machines follow from the current assignment.
+ */
+public class SwapMachineMoveFactory implements MoveFactory<MRAPSolution>, StreamingMoveFactory<MRAPSolution> {
 	
 	private boolean fullneighborhood;
 	private int tournamentFactor;
 	private Random rand;
+	private ForkJoinPool pool;
 	
+	// scratch arrays for the feasibility checks and the delta of a candidate
+	private final int[] processes = new int[2];
+	private final int[] machines = new int[2];
+	
+	// the candidates of a sampled tournament, evaluated against the solution of the evaluator
+	private final Tournament tournament = new Tournament();
+	private final SwapEvaluator evaluator = new SwapEvaluator();
+	
+	/**
+	 * Full neighbourhood. Only the best move of the neighbourhood is passed to
+	 * the visitor.
+	 */
 	public SwapMachineMoveFactory() {
 		fullneighborhood=true;
 	}
 	
+	/**
+	 * Full neighbourhood, searched in parallel on the pool. Only the best move
+	 * of the neighbourhood is passed to the visitor.
+	 * @param pool
+	 */
+	public SwapMachineMoveFactory(ForkJoinPool pool) {
+		fullneighborhood=true;
+		this.pool=pool;
+	}
+	
 	public SwapMachineMoveFactory(boolean fullNeighborhood, int tournamentFactor,Random rand) {
 		this.fullneighborhood=fullNeighborhood;
 		this.tournamentFactor=tournamentFactor;
@@ -41,49 +73,182 @@ public class SwapMachineMoveFactory implements MoveFactory<MRAPSolution> {
 	}
 
 	@Override
-	public List<? extends Move<MRAPSolution>> createMoves(MRAPSolution solution) {
-		List<Move<MRAPSolution>> moveList=new ArrayList<Move<MRAPSolution>>();
+	public List<? extends Move<MRAPSolution>> createMoves(final MRAPSolution solution) {
+		final List<Move<MRAPSolution>> moveList=new ArrayList<Move<MRAPSolution>>();
+		visitMoves(solution, new MoveVisitor() {
+			@Override
+			public void visit(long move, long delta) {
+				moveList.add(toMove(solution, move));
+			}
+
+			@Override
+			public void evaluated(int nrOfMoves) {
+			}
+		});
+		return moveList;
+	}
+
+	@Override
+	public void visitMoves(MRAPSolution solution, MoveVisitor visitor) {
 		Problem problem = solution.getProblem();
+		int[] assignment = solution.getAssignment();
 		
 		int p1;
 		int p2;
-		int m1;
-		int m2;
 		if (fullneighborhood){
-
-			for(p1=0;p1<problem.nrProcesses-1;p1++) {
-				for(p2=p1+1;p2<problem.nrProcesses;p2++) {
-					m1=solution.getAssignment()[p1];
-					m2=solution.getAssignment()[p2];
-					if (m1!=m2){
-						int[] processes=new int[]{p1,p2};
-						int[] machines=new int[]{m2,m1};
-						if (solution.tryMachineByCapacitySwap(processes, machines) && solution.tryMachineByConflictSwap(processes, machines) && solution.tryMachineByDependencySwap(processes, machines) && solution.tryMachineBySpreadSwap(processes, machines)){
-							moveList.add(new SwapMachineMove(processes, machines));
-						}
-					}
-				}		
+			// only the best move is passed to the visitor, the machine pairs are pruned against it
+			SwapPairBounds bounds=new SwapPairBounds(solution);
+			int nrMachines=problem.nrMachines;
+			BestMove best=pool!=null
+					? pool.invoke(new SwapTask(solution, bounds, 0, nrMachines, BestMoveTask.threshold(nrMachines, pool.getParallelism())))
+					: new SwapTask(solution, bounds, 0, nrMachines, nrMachines).compute();
+			if (best.isFound()){
+				visitor.visit(best.move, best.delta);
 			}
+			visitor.evaluated(best.nrOfEvaluations);
 		}else {
+			// candidates that fit capacity wise, only the best feasible one is passed to the visitor
+			evaluator.solution=solution;
+			int nrOfEvaluations=0;
+			boolean selected;
 			do {
-				p1=rand.nextInt(problem.nrProcesses);
-				do {
-					p2=rand.nextInt(problem.nrProcesses);
-				} while (p1==p2 || solution.getAssignment()[p1]==solution.getAssignment()[p2]);
-				m1=solution.getAssignment()[p1];
-				m2=solution.getAssignment()[p2];
-				
-				int[] processes=new int[]{p1,p2};
-				int[] machines=new int[]{m2,m1};
-				if (solution.tryMachineByCapacitySwap(processes, machines) && solution.tryMachineByConflictSwap(processes, machines) && solution.tryMachineByDependencySwap(processes, machines) && solution.tryMachineBySpreadSwap(processes, machines)){
-					moveList.add(new SwapMachineMove(processes, machines));
+				tournament.clear();
+				while(tournament.size()<tournamentFactor) {
+					p1=rand.nextInt(problem.nrProcesses);
+					// a partner that is likely to fit capacity and dependency wise,
+					// or a random one if the sampler found none
+					p2=solution.sampleSwapPartner(p1, rand);
+					if (p2<0){
+						do {
+							p2=rand.nextInt(problem.nrProcesses);
+						} while (p1==p2 || assignment[p1]==assignment[p2]);
+					}
+					
+					fill(solution, p1, p2, processes, machines);
+					if (!solution.tryMachineByCapacitySwap(processes, machines)) continue;
+					tournament.add(PackedMove.pack(p1, p2), solution.evaluateDeltaLowerBound(processes, machines));
 				}
+				selected=tournament.select(evaluator);
+				nrOfEvaluations+=tournament.nrOfEvaluations;
+			}while(!selected);
+			visitor.visit(tournament.bestMove, tournament.bestDelta);
+			visitor.evaluated(nrOfEvaluations);
+		}
+	}
+
+	@Override
+	public void doMove(MRAPSolution solution, long move) {
+		int p1=PackedMove.first(move);
+		int p2=PackedMove.second(move);
+		int m1=solution.getAssignment()[p1];
+		int m2=solution.getAssignment()[p2];
+		// same as doMove(int[], int[]), without the arrays
+		solution.doMove(p1, m2);
+		solution.doMove(p2, m1);
+	}
+
+	@Override
+	public Move<MRAPSolution> toMove(MRAPSolution solution, long move) {
+		int p1=PackedMove.first(move);
+		int p2=PackedMove.second(move);
+		int[] assignment=solution.getAssignment();
+		return new SwapMachineMove(new int[]{p1,p2}, new int[]{assignment[p2],assignment[p1]});
+	}
+
+	/**
+	 * Fills the arrays with the swap of p1 and p2
+	 */
+	private static void fill(MRAPSolution solution, int p1, int p2, int[] processes, int[] machines) {
+		processes[0]=p1;
+		processes[1]=p2;
+		machines[0]=solution.getAssignment()[p2];
+		machines[1]=solution.getAssignment()[p1];
+	}
+	
+	/**
+	 * Fills the arrays with the swap of p1 and p2 and checks its feasibility
+	 */
+	private static boolean isFeasible(MRAPSolution solution, int p1, int p2, int[] processes, int[] machines) {
+		fill(solution, p1, p2, processes, machines);
+		return solution.tryMachineByCapacitySwap(processes, machines) && solution.tryMachineByConflictSwap(processes, machines) && solution.tryMachineByDependencySwap(processes, machines) && solution.tryMachineBySpreadSwap(processes, machines);
+	}
+	
+	private static class SwapEvaluator implements Tournament.Evaluator {
+		
+		MRAPSolution solution;
+		private final int[] processes=new int[2];
+		private final int[] machines=new int[2];
+		
+		@Override
+		public long evaluateDelta(long move) {
+			fill(solution, PackedMove.first(move), PackedMove.second(move), processes, machines);
+			return solution.evaluateDelta(processes, machines);
+		}
+		
+		// the capacity is checked when the candidate is drawn
+		@Override
+		public boolean isFeasible(long move) {
+			fill(solution, PackedMove.first(move), PackedMove.second(move), processes, machines);
+			return solution.tryMachineByConflictSwap(processes, machines) && solution.tryMachineByDependencySwap(processes, machines) && solution.tryMachineBySpreadSwap(processes, machines);
+		}
+	}
+	
+	/**
+	 * Searches the swaps between the machines order[i] and order[j], for i in
+	 * the range of the task and j > i, in the order of the pair bounds. The
+	 * ranges with a low i have more work, the fine split of BestMoveTask lets
+	 * the pool balance that.
+	 */
+	private static class SwapTask extends BestMoveTask {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final SwapPairBounds bounds;
+		
+		SwapTask(MRAPSolution solution, SwapPairBounds bounds, int from, int to, int threshold) {
+			super(solution, from, to, threshold);
+			this.bounds=bounds;
+		}
+		
+		@Override
+		protected void search(int from, int to, BestMove best) {
+			int[] order=bounds.order;
+			int[] processes=new int[2];
+			int[] machines=new int[2];
+			for(int i=from;i<to;i++) {
+				int m1=order[i];
+				// the bound only grows along the order, so no later pair can do better either
+				if (i+1<order.length && !bounds.canImprove(bounds.lowerBound(m1, order[i+1]), best.delta)) break;
 				
-			}while(moveList.size()<tournamentFactor);
+				for(int j=i+1;j<order.length;j++) {
+					int m2=order[j];
+					if (!bounds.canImprove(bounds.lowerBound(m1, m2), best.delta)) break;
+					if (!bounds.hasHeadroom(m1, m2)) continue;
+					
+					for(int k=0;k<solution.getNrOfProcessesOnMachine(m1);k++) {
+						int p1=solution.getProcessOnMachine(m1, k);
+						if (!bounds.canImprove(bounds.lowerBound(p1, m1, m2), best.delta)) continue;
+						
+						for(int l=0;l<solution.getNrOfProcessesOnMachine(m2);l++) {
+							int p2=solution.getProcessOnMachine(m2, l);
+							if (isFeasible(solution, p1, p2, processes, machines)){
+								long delta=solution.evaluateDelta(processes, machines);
+								best.nrOfEvaluations++;
+								if (delta<best.delta){
+									best.offer(PackedMove.pack(p1, p2), delta);
+									bounds.publish(delta);
+								}
+							}
+						}
+					}
+				}
+			}
 		}
 		
-		return moveList;
+		@Override
+		protected BestMoveTask subtask(int from, int to) {
+			return new SwapTask(solution, bounds, from, to, threshold);
+		}
 	}
 
-
 }
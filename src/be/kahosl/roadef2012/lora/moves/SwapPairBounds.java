@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.lora.moves;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import be.kahosl.roadef2012.lora.MRAPSolution;
+import be.kahosl.roadef2012.model.Problem;
+
+/**
+ * Bounds to prune the full swap neighbourhood by machine pair, computed once
+ * per pass from the current solution.
+ *
+ * A swap between two machines only changes the load and balance cost of those
+ * machines, which can at most drop to zero, and the move costs of the two
+ * processes, which can at most drop to zero as well. The service move cost
+ * can drop by at most two. The weight of a machine is its load and balance
+ * cost plus the highest move cost of a process on it, so that minus the
+ * weights of two machines (and twice the service move cost weight) is a lower
+ * bound on the delta of every swap between them. The machines are ordered by
+ * decreasing weight, so the bound only grows along the order.
+ *
+ * A machine pair is also skipped when no process pair can fit capacity wise,
+ * judged from the smallest and largest requirements on both machines.
+ *
+ * Parallel tasks share the best delta found so far. A bound is only pruned
+ * against it when it is strictly higher, so that moves that could tie are
+ * still found and the first best move in enumeration order wins.
+ */
+final class SwapPairBounds {
+
+	private final MRAPSolution solution;
+	private final Problem problem;
+
+	final int[] order; // machines by decreasing weight
+	private final long[] weight; // [machine]
+	private final long[] cost; // [machine], load and balance cost
+	private final long[] minReq; // [machine*nrResources+resource], over the processes on the machine
+	private final long[] maxReq; // [machine*nrResources+resource]
+	private final long serviceMoveBound;
+	private final AtomicLong sharedBest = new AtomicLong(Long.MAX_VALUE);
+
+	SwapPairBounds(MRAPSolution solution) {
+		this.solution = solution;
+		this.problem = solution.getProblem();
+		int nrMachines = problem.nrMachines;
+		int nrResources = problem.nrResources;
+
+		weight = new long[nrMachines];
+		cost = new long[nrMachines];
+		minReq = new long[nrMachines * nrResources];
+		maxReq = new long[nrMachines * nrResources];
+		Arrays.fill(minReq, Long.MAX_VALUE);
+		for (int m = 0; m < nrMachines; m++) {
+			cost[m] = solution.getMachineLoadCost(m) + solution.getMachineBalanceCost(m);
+			long highestMoveCost = 0;
+			for (int i = 0; i < solution.getNrOfProcessesOnMachine(m); i++) {
+				int p = solution.getProcessOnMachine(m, i);
+				highestMoveCost = Math.max(highestMoveCost, moveCost(p));
+				for (int r = 0; r < nrResources; r++) {
+					long req = problem.processReq[p * nrResources + r];
+					minReq[m * nrResources + r] = Math.min(minReq[m * nrResources + r], req);
+					maxReq[m * nrResources + r] = Math.max(maxReq[m * nrResources + r], req);
+				}
+			}
+			weight[m] = cost[m] + highestMoveCost;
+		}
+		serviceMoveBound = 2L * problem.serviceMoveCostWeight;
+
+		Integer[] machines = new Integer[nrMachines];
+		for (int m = 0; m < nrMachines; m++) {
+			machines[m] = m;
+		}
+		Arrays.sort(machines, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer m1, Integer m2) {
+				long w1 = weight[m1];
+				long w2 = weight[m2];
+				return w1 > w2 ? -1 : (w1 < w2 ? 1 : m1.compareTo(m2));
+			}
+		});
+		order = new int[nrMachines];
+		for (int i = 0; i < nrMachines; i++) {
+			order[i] = machines[i];
+		}
+	}
+
+	/**
+	 * @return false if no move with the given lower bound can become the best
+	 *         move, given the best move of the task
+	 */
+	boolean canImprove(long lowerBound, long bestDelta) {
+		return lowerBound < bestDelta && lowerBound <= sharedBest.get();
+	}
+
+	/**
+	 * Shares the best delta of a task with the other tasks
+	 */
+	void publish(long bestDelta) {
+		long shared;
+		while (bestDelta < (shared = sharedBest.get()) && !sharedBest.compareAndSet(shared, bestDelta)) {
+		}
+	}
+
+	/**
+	 * @return a lower bound on the delta of every swap between the machines
+	 */
+	long lowerBound(int m1, int m2) {
+		return -(weight[m1] + weight[m2]) - serviceMoveBound;
+	}
+
+	/**
+	 * @return a lower bound on the delta of every swap of the process (on m1)
+	 *         with a process on m2
+	 */
+	long lowerBound(int process, int m1, int m2) {
+		return -(cost[m1] + moveCost(process) + weight[m2]) - serviceMoveBound;
+	}
+
+	/**
+	 * @return false if no process pair of the machines can be swapped without
+	 *         exceeding a capacity. The room ignores the transient usage, which
+	 *         can only overestimate it.
+	 */
+	boolean hasHeadroom(int m1, int m2) {
+		int nrResources = problem.nrResources;
+		long[] usage = solution.getUsage();
+		for (int r = 0; r < nrResources; r++) {
+			int i1 = m1 * nrResources + r;
+			int i2 = m2 * nrResources + r;
+			if (minReq[i2] - maxReq[i1] > problem.cap[i1] - usage[i1])
+				return false;
+			if (minReq[i1] - maxReq[i2] > problem.cap[i2] - usage[i2])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the current weighted process and machine move cost of the process
+	 */
+	private long moveCost(int process) {
+		int initial = solution.getInitialAssignment()[process];
+		int machine = solution.getAssignment()[process];
+		long moveCost = (long) problem.machineMoveCostWeight * problem.machineMoveCost.get(initial, machine);
+		if (initial != machine) {
+			moveCost += (long) problem.processMoveCostWeight * problem.processMoveCost[process];
+		}
+		return moveCost;
+	}
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.lora.moves;
+
+import java.util.Arrays;
+
+/**
+ * Selects the best feasible move of a sampled tournament while evaluating as
+ * few candidates as possible.
+ *
+ * The candidates are added with a cheap lower bound on their delta, and kept
+ * in a binary heap by that bound. Candidates are taken from it in increasing
+ * order of the bound and their exact delta is evaluated, they then move to a
+ * second heap by delta. As soon as the lowest evaluated delta is not higher
+ * than the lowest remaining bound, no unevaluated candidate can beat that
+ * candidate, so only then its feasibility is checked: the first feasible
+ * candidate is the best one, an infeasible one is dropped. So the exact delta
+ * is only evaluated for the candidates whose bound is below the delta of the
+ * winner, and the feasibility only for the candidates with a lower delta.
+ *
+ * The result is a feasible move with the lowest delta of all candidates, as
+ * if all of them had been checked and evaluated. The buffers are reused, so a
+ * tournament does not allocate once they have grown to the tournament size.
+ */
+final class Tournament {
+
+	interface Evaluator {
+
+		long evaluateDelta(long move);
+
+		boolean isFeasible(long move);
+	}
+
+	private long[] moves = new long[16];
+	private long[] bounds = new long[16];
+	private long[] deltas = new long[16];
+	private int[] boundHeap = new int[16]; // unevaluated candidates, ordered by bound
+	private int[] deltaHeap = new int[16]; // evaluated candidates, ordered by delta
+	private int size;
+
+	long bestMove;
+	long bestDelta;
+	int nrOfEvaluations; // exact delta evaluations of the last select
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+	void add(long move, long lowerBound) {
+		if (size == moves.length) {
+			moves = Arrays.copyOf(moves, 2 * size);
+			bounds = Arrays.copyOf(bounds, 2 * size);
+			deltas = new long[2 * size];
+			boundHeap = new int[2 * size];
+			deltaHeap = new int[2 * size];
+		}
+		moves[size] = move;
+		bounds[size] = lowerBound;
+		size++;
+	}
+
+	/**
+	 * Selects the best feasible candidate into bestMove and bestDelta
+	 * @param evaluator
+	 * @return false if no candidate is feasible
+	 */
+	boolean select(Evaluator evaluator) {
+		int nrUnevaluated = size;
+		for (int i = 0; i < nrUnevaluated; i++) {
+			boundHeap[i] = i;
+		}
+		for (int i = nrUnevaluated / 2 - 1; i >= 0; i--) {
+			siftDown(boundHeap, bounds, i, nrUnevaluated);
+		}
+		int nrEvaluated = 0;
+		nrOfEvaluations = 0;
+
+		while (nrUnevaluated > 0 || nrEvaluated > 0) {
+			if (nrEvaluated > 0 && (nrUnevaluated == 0 || deltas[deltaHeap[0]] <= bounds[boundHeap[0]])) {
+				// no unevaluated candidate can do better than the lowest delta
+				int candidate = deltaHeap[0];
+				if (evaluator.isFeasible(moves[candidate])) {
+					bestMove = moves[candidate];
+					bestDelta = deltas[candidate];
+					return true;
+				}
+				deltaHeap[0] = deltaHeap[--nrEvaluated];
+				siftDown(deltaHeap, deltas, 0, nrEvaluated);
+			} else {
+				int candidate = boundHeap[0];
+				boundHeap[0] = boundHeap[--nrUnevaluated];
+				siftDown(boundHeap, bounds, 0, nrUnevaluated);
+
+				deltas[candidate] = evaluator.evaluateDelta(moves[candidate]);
+				nrOfEvaluations++;
+				deltaHeap[nrEvaluated] = candidate;
+				siftUp(deltaHeap, deltas, nrEvaluated++);
+			}
+		}
+		return false;
+	}
+
+	private static void siftDown(int[] heap, long[] keys, int i, int heapSize) {
+		int candidate = heap[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= heapSize)
+				break;
+			if (child + 1 < heapSize && precedes(keys, heap[child + 1], heap[child]))
+				child++;
+			if (!precedes(keys, heap[child], candidate))
+				break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = candidate;
+	}
+
+	private static void siftUp(int[] heap, long[] keys, int i) {
+		int candidate = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!precedes(keys, candidate, heap[parent]))
+				break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = candidate;
+	}
+
+	/**
+	 * Order by key, then by the order in which the candidates were added
+	 */
+	private static boolean precedes(long[] keys, int c1, int c2) {
+		return keys[c1] < keys[c2] || (keys[c1] == keys[c2] && c1 < c2);
+	}
+}
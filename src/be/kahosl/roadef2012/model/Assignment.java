@@ -15,41 +15,72 @@
  ******************************************************************************/
 package be.kahosl.roadef2012.model;
 
+import static be.kahosl.roadef2012.model.AssignmentHelper.positivePart;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Random;
 
 public class Assignment {
 	
 	// basic solution info
-	private Problem problem;
+	private final Problem problem;
 	
 	private final int[] initialAssignment;
 	
 	private int[] assignment;
-	private Map<Integer,Set<Integer>> machineToProcMap; //[machine, list(processes)]
+	
+	// machine to process index: per machine an (unordered) list of the processes on it
+	private int[][] machineProcesses; //[machine, index], the first machineProcessCount[machine] entries are used
+	private int[] machineProcessCount; //[machine]
+	private int[] processSlot; //[process], index of the process in the list of its machine
+	
+	private ServiceMachineOccupancy serviceMachineCount; // number of processes of a service on a machine, for the conflict constraint
 	
 	//helper structures for efficient delta evaluation and constraint checking:
 	
 	//capacity constraint helper
-	private long[][] usage; //[machineID;resourceID]
-	private long[][] transientUsage; //[machineID;resourceID], when a process is moved this contains the transient usage it has on its orignal machine
+	private long[] usage; //[machineID*nrResources+resourceID]
+	private long[] transientUsage; //[machineID*nrResources+resourceID], when a process is moved this contains the transient usage it has on its orignal machine
 	
 	private int[][] neighborHoodCount; //[service,neighborhood], number of processes of a service that runs in a specific neighbourhood
+	private int[] missingDependencies; //[service*nrNeighbourhoods+neighborhood], number of dependencies of a service without a process in a neighbourhood
+	private int[] presentDependents; //[service*nrNeighbourhoods+neighborhood], number of services depending on a service with a process in a neighbourhood
 	private int[][] locationCount; //[service,location], number of processes of a service that runs in a specific location
 	private int[] serviceSpread; // [service], over how many locations a service is spread.
 	
 	private int[] serviceMoveCount; //[service]
 	private int maxServiceMoveCount; // count of the service that was moved most
-	private int serviceWithMaxMoveCount; // id of the service with with max move count
+	private int[] serviceMoveCountHistogram; //[move count], number of services with a specific move count
 	
 	private int[][] inverseDependencies;  // [serviceid] (list of services that depend on a specific service)
 	
-	private long[][] quadraticOverload; // [machine, resource]  (per machine, per resource, the quadratic overload (U_m,r - SC_m,r)
+	private long[] quadraticOverload; // [machine*nrResources+resource]  (per machine, per resource, the quadratic overload (U_m,r - SC_m,r)
+	private MachineWeightTree overloadWeights; // [machine], sum over the resources of quadraticOverload+1, for roulette wheel selection
+	
+	// target machine sampling
+	private static final int SWAP_PARTNER_ATTEMPTS = 4; // draws for a swap partner before giving up
+	private int[][] eligibleMachines; // [process], machines that can hold the process when empty, null if all of them can (shared between copies)
+	private int slackResource; // resource with the highest total requirement relative to its total capacity
+	private SlackIndex slackIndex; // machines by their remaining capacity of the slack resource
+	private ProcessProfileIndex profileIndex; // processes by neighbourhood and requirement of the slack resource, for swap partners
+	
+	// the most a process can lower the weighted cost of a machine, for the delta lower bounds (shared between copies)
+	private long[] loadRelief; // [process], load cost of the machine it leaves
+	private long[] leaveBalanceRelief; // [process], balance cost of the machine it leaves
+	private long[] arriveBalanceRelief; // [process], balance cost of the machine it arrives on
+	
+	// current weighted load and balance cost per machine, so that delta evaluation only has to compute the cost after a move
+	private long[] machineLoadCost; // [machine]
+	private long[] machineBalanceCost; // [machine]
+	
+	// objective components, the load and balance cost are weighted, the move costs not (like in AssignmentHelper.evaluate)
+	private long totalLoadCost;
+	private long totalBalanceCost;
+	private long totalProcessMoveCost;
+	private long totalMachineMoveCost;
 
 	public Assignment(Problem problem, int[] initialAssignment) {
 		this.problem = problem;
@@ -59,10 +90,15 @@ public class Assignment {
 		initializeUsage();	
 		initializeNeighborhoodCount(problem, initialAssignment);
 		initializeLocationCount(problem, initialAssignment);
-		initializeMachineToProcMap();
-		serviceMoveCount=new int[problem.nrServices];
+		initializeMachineProcesses();
+		initializeServiceMoveCount(problem);
 		initializeInverseDependencies(problem);
+		initializeDependencyCounts(problem);
 		initializeQuadraticOverload(problem);
+		initializeMachineCosts();
+		initializeMoveCosts();
+		initializeTargetSampling();
+		initializeDeltaBounds();
 		
 	}
 
@@ -78,35 +114,310 @@ public class Assignment {
 		
 	}
 	
+	/**
+	 * Copy constructor. Copies the complete state of the given assignment
+	 * instead of rebuilding it, the instance specific (immutable) data is shared.
+	 * @param ass
+	 */
 	public Assignment(Assignment ass){
-		this(ass.getProblem(), ass.getInitialAssignment(), ass.getAssignment());
+		this.problem = ass.problem;
+		this.initialAssignment = ass.initialAssignment;
+		this.inverseDependencies = ass.inverseDependencies;
+		this.eligibleMachines = ass.eligibleMachines;
+		this.slackResource = ass.slackResource;
+		this.loadRelief = ass.loadRelief;
+		this.leaveBalanceRelief = ass.leaveBalanceRelief;
+		this.arriveBalanceRelief = ass.arriveBalanceRelief;
+		
+		this.assignment = ass.assignment.clone();
+		this.usage = ass.usage.clone();
+		this.transientUsage = ass.transientUsage.clone();
+		this.quadraticOverload = ass.quadraticOverload.clone();
+		this.overloadWeights = new MachineWeightTree(ass.overloadWeights);
+		this.slackIndex = new SlackIndex(ass.slackIndex);
+		this.profileIndex = new ProcessProfileIndex(ass.profileIndex);
+		this.machineLoadCost = ass.machineLoadCost.clone();
+		this.machineBalanceCost = ass.machineBalanceCost.clone();
+		this.neighborHoodCount = deepCopy(ass.neighborHoodCount);
+		this.missingDependencies = ass.missingDependencies.clone();
+		this.presentDependents = ass.presentDependents.clone();
+		this.locationCount = deepCopy(ass.locationCount);
+		this.serviceSpread = ass.serviceSpread.clone();
+		this.serviceMoveCount = ass.serviceMoveCount.clone();
+		this.maxServiceMoveCount = ass.maxServiceMoveCount;
+		this.totalLoadCost = ass.totalLoadCost;
+		this.totalBalanceCost = ass.totalBalanceCost;
+		this.totalProcessMoveCost = ass.totalProcessMoveCost;
+		this.totalMachineMoveCost = ass.totalMachineMoveCost;
+		this.serviceMoveCountHistogram = ass.serviceMoveCountHistogram.clone();
+		
+		this.machineProcesses = deepCopy(ass.machineProcesses);
+		this.machineProcessCount = ass.machineProcessCount.clone();
+		this.processSlot = ass.processSlot.clone();
+		this.serviceMachineCount = new ServiceMachineOccupancy(ass.serviceMachineCount);
+	}
+	
+	/**
+	 * Overwrites the state of this assignment with the state of the given
+	 * assignment, reusing the arrays of this assignment. Both assignments
+	 * must be for the same problem and initial assignment.
+	 * @param ass
+	 */
+	public void copyFrom(Assignment ass){
+		if (ass.problem!=problem || (ass.initialAssignment!=initialAssignment && !Arrays.equals(ass.initialAssignment, initialAssignment))){
+			throw new IllegalArgumentException("Can only copy an assignment of the same problem and initial assignment");
+		}
+		
+		System.arraycopy(ass.assignment, 0, assignment, 0, assignment.length);
+		System.arraycopy(ass.usage, 0, usage, 0, usage.length);
+		System.arraycopy(ass.transientUsage, 0, transientUsage, 0, transientUsage.length);
+		System.arraycopy(ass.quadraticOverload, 0, quadraticOverload, 0, quadraticOverload.length);
+		overloadWeights.copyFrom(ass.overloadWeights);
+		slackIndex.copyFrom(ass.slackIndex);
+		profileIndex.copyFrom(ass.profileIndex);
+		System.arraycopy(ass.machineLoadCost, 0, machineLoadCost, 0, machineLoadCost.length);
+		System.arraycopy(ass.machineBalanceCost, 0, machineBalanceCost, 0, machineBalanceCost.length);
+		copy(ass.neighborHoodCount, neighborHoodCount);
+		System.arraycopy(ass.missingDependencies, 0, missingDependencies, 0, missingDependencies.length);
+		System.arraycopy(ass.presentDependents, 0, presentDependents, 0, presentDependents.length);
+		copy(ass.locationCount, locationCount);
+		System.arraycopy(ass.serviceSpread, 0, serviceSpread, 0, serviceSpread.length);
+		System.arraycopy(ass.serviceMoveCount, 0, serviceMoveCount, 0, serviceMoveCount.length);
+		maxServiceMoveCount = ass.maxServiceMoveCount;
+		totalLoadCost = ass.totalLoadCost;
+		totalBalanceCost = ass.totalBalanceCost;
+		totalProcessMoveCost = ass.totalProcessMoveCost;
+		totalMachineMoveCost = ass.totalMachineMoveCost;
+		System.arraycopy(ass.serviceMoveCountHistogram, 0, serviceMoveCountHistogram, 0, serviceMoveCountHistogram.length);
+		
+		for (int m=0;m<problem.nrMachines;m++){
+			if (machineProcesses[m].length<ass.machineProcessCount[m]){
+				machineProcesses[m] = new int[ass.machineProcesses[m].length];
+			}
+			System.arraycopy(ass.machineProcesses[m], 0, machineProcesses[m], 0, ass.machineProcessCount[m]);
+		}
+		System.arraycopy(ass.machineProcessCount, 0, machineProcessCount, 0, machineProcessCount.length);
+		System.arraycopy(ass.processSlot, 0, processSlot, 0, processSlot.length);
+		serviceMachineCount.copyFrom(ass.serviceMachineCount);
+	}
+	
+	private static int[][] deepCopy(int[][] source){
+		int[][] copy = new int[source.length][];
+		for (int i=0;i<source.length;i++){
+			copy[i] = source[i].clone();
+		}
+		return copy;
+	}
+	
+	private static void copy(int[][] source, int[][] destination){
+		for (int i=0;i<source.length;i++){
+			System.arraycopy(source[i], 0, destination[i], 0, source[i].length);
+		}
+	}
+
+	private void initializeMachineCosts() {
+		machineLoadCost = new long[problem.nrMachines];
+		machineBalanceCost = new long[problem.nrMachines];
+		for (int m=0;m<problem.nrMachines;m++){
+			updateMachineCosts(m);
+		}
+	}
+	
+	private void initializeMoveCosts() {
+		// nothing is moved yet, but the matrix does not have to be zero on the diagonal
+		totalProcessMoveCost = 0;
+		totalMachineMoveCost = 0;
+		for (int p=0;p<problem.nrProcesses;p++){
+			totalMachineMoveCost+=problem.machineMoveCost.get(initialAssignment[p], assignment[p]);
+		}
+	}
+	
+	private void initializeTargetSampling() {
+		int nrResources=problem.nrResources;
+		
+		long[] minCap=new long[nrResources];
+		Arrays.fill(minCap, Long.MAX_VALUE);
+		double[] totalCap=new double[nrResources];
+		double[] totalReq=new double[nrResources];
+		for (int m=0;m<problem.nrMachines;m++){
+			for (int r=0;r<nrResources;r++){
+				minCap[r]=Math.min(minCap[r], problem.cap[m*nrResources+r]);
+				totalCap[r]+=problem.cap[m*nrResources+r];
+			}
+		}
+		
+		// a process that fits on the smallest capacity of every resource fits on every machine,
+		// only the other (usually few and large) processes get a list
+		eligibleMachines=new int[problem.nrProcesses][];
+		int[] eligible=new int[problem.nrMachines];
+		for (int p=0;p<problem.nrProcesses;p++){
+			int pBase=p*nrResources;
+			boolean fitsEverywhere=true;
+			for (int r=0;r<nrResources;r++){
+				totalReq[r]+=problem.processReq[pBase+r];
+				fitsEverywhere&=problem.processReq[pBase+r]<=minCap[r];
+			}
+			if (fitsEverywhere) continue;
+			
+			int count=0;
+			for (int m=0;m<problem.nrMachines;m++){
+				if (fitsWhenEmpty(p, m)) eligible[count++]=m;
+			}
+			if (count>0) eligibleMachines[p]=Arrays.copyOf(eligible, count);
+		}
+		
+		slackResource=0;
+		for (int r=1;r<nrResources;r++){
+			if (totalReq[r]/totalCap[r]>totalReq[slackResource]/totalCap[slackResource]) slackResource=r;
+		}
+		
+		long[] slack=new long[problem.nrMachines];
+		for (int m=0;m<problem.nrMachines;m++){
+			slack[m]=slack(m);
+		}
+		slackIndex=new SlackIndex(slack);
+		
+		long[] requirement=new long[problem.nrProcesses];
+		int[] neighbourhood=new int[problem.nrProcesses];
+		for (int p=0;p<problem.nrProcesses;p++){
+			requirement[p]=problem.processReq[p*nrResources+slackResource];
+			neighbourhood[p]=problem.machineNeighbourhoodMap[assignment[p]];
+		}
+		profileIndex=new ProcessProfileIndex(requirement, neighbourhood, problem.nrNeighbourhoods);
+	}
+	
+	/**
+	 * A load cost term can drop by at most the weighted requirement of the
+	 * process that leaves. A balance term target*available1-available2 changes
+	 * by target*req1-req2 when the process leaves and by the opposite when it
+	 * arrives, so it can drop by at most the weighted decrease.
+	 */
+	private void initializeDeltaBounds(){
+		int nrResources=problem.nrResources;
+		loadRelief=new long[problem.nrProcesses];
+		leaveBalanceRelief=new long[problem.nrProcesses];
+		arriveBalanceRelief=new long[problem.nrProcesses];
+		for (int p=0;p<problem.nrProcesses;p++){
+			int pBase=p*nrResources;
+			for (int r=0;r<nrResources;r++){
+				loadRelief[p]+=problem.processReq[pBase+r]*problem.resourceLoadCostWeight[r];
+			}
+			for (int b=0;b<problem.nrBalanceObj;b++){
+				long change=problem.balanceObj[b][2]*problem.processReq[pBase+problem.balanceObj[b][0]]-problem.processReq[pBase+problem.balanceObj[b][1]];
+				leaveBalanceRelief[p]+=positivePart(-change)*problem.balanceObjWeight[b];
+				arriveBalanceRelief[p]+=positivePart(change)*problem.balanceObjWeight[b];
+			}
+		}
+	}
+	
+	private boolean fitsWhenEmpty(int process, int machine){
+		for (int r=0;r<problem.nrResources;r++){
+			if (problem.processReq[process*problem.nrResources+r]>problem.cap[machine*problem.nrResources+r]) return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the remaining capacity of the slack resource on the machine, transient usage included
+	 */
+	private long slack(int machine){
+		int i=machine*problem.nrResources+slackResource;
+		return problem.cap[i]-usage[i]-transientUsage[i];
+	}
+	
+	private void updateMachineCosts(int machine) {
+		int base=machine*problem.nrResources;
+		
+		long loadCost=0;
+		for (int r=0;r<problem.nrResources;r++){
+			loadCost+=positivePart(usage[base+r]-problem.safetyCap[base+r])*problem.resourceLoadCostWeight[r];
+		}
+		totalLoadCost+=loadCost-machineLoadCost[machine];
+		machineLoadCost[machine]=loadCost;
+		
+		long balanceCost=0;
+		for (int b=0;b<problem.nrBalanceObj;b++){
+			int r1 = problem.balanceObj[b][0];
+			int r2 = problem.balanceObj[b][1];
+			int target = problem.balanceObj[b][2];
+			balanceCost+=positivePart(target*(problem.cap[base+r1]-usage[base+r1]) - (problem.cap[base+r2]-usage[base+r2]))*problem.balanceObjWeight[b];
+		}
+		totalBalanceCost+=balanceCost-machineBalanceCost[machine];
+		machineBalanceCost[machine]=balanceCost;
 	}
 
 	private void initializeQuadraticOverload(Problem problem) {
-		quadraticOverload = new long[problem.nrMachines][problem.nrResources];
+		quadraticOverload = new long[problem.nrMachines*problem.nrResources];
 		
-		for(int m = 0; m<problem.nrMachines; m++) {
-			for(int r = 0; r<problem.nrResources; r++) {
-				long temp = (usage[m][r]-problem.safetyCap[m][r]);
-				quadraticOverload[m][r] = (temp*temp);
+		for(int i = 0; i<quadraticOverload.length; i++) {
+			long temp = (usage[i]-problem.safetyCap[i]);
+			quadraticOverload[i] = (temp*temp);
+		}
+		
+		long[] weights = new long[problem.nrMachines];
+		for (int m=0;m<problem.nrMachines;m++){
+			for (int r=0;r<problem.nrResources;r++){
+				weights[m]+=quadraticOverload[m*problem.nrResources+r]+1;
 			}
 		}
+		overloadWeights = new MachineWeightTree(weights);
 	}
 
 
 
-	private void initializeMachineToProcMap() {
-		machineToProcMap = new HashMap<Integer, Set<Integer>>();
+	private void initializeMachineProcesses() {
+		machineProcessCount = new int[problem.nrMachines];
+		processSlot = new int[problem.nrProcesses];
+		serviceMachineCount = new ServiceMachineOccupancy(problem.nrServices, problem.nrMachines, problem.nrProcesses);
+		
+		for(int p = 0; p<problem.nrProcesses; p++) {
+			machineProcessCount[assignment[p]]++;
+		}
 		
+		// leave some room on each machine, lists grow when needed
+		machineProcesses = new int[problem.nrMachines][];
 		for(int m = 0; m<problem.nrMachines; m++) {
-			machineToProcMap.put(m, new HashSet<Integer>());
+			machineProcesses[m] = new int[Math.max(4, 2*machineProcessCount[m])];
+			machineProcessCount[m] = 0;
 		}
 		
 		for(int p = 0; p<problem.nrProcesses; p++) {
-			int m = assignment[p];	
-			machineToProcMap.get(m).add(p);
+			addToMachine(p, assignment[p]);
+		}
+	}
+	
+	private void addToMachine(int process, int machine) {
+		int count = machineProcessCount[machine];
+		if (count==machineProcesses[machine].length){
+			machineProcesses[machine] = Arrays.copyOf(machineProcesses[machine], 2*count);
+		}
+		machineProcesses[machine][count] = process;
+		processSlot[process] = count;
+		machineProcessCount[machine] = count+1;
+		serviceMachineCount.increment(problem.processServiceMap[process], machine);
+	}
+	
+	private void removeFromMachine(int process, int machine) {
+		// move the last process of the machine to the free slot
+		int last = machineProcesses[machine][--machineProcessCount[machine]];
+		int slot = processSlot[process];
+		machineProcesses[machine][slot] = last;
+		processSlot[last] = slot;
+		serviceMachineCount.decrement(problem.processServiceMap[process], machine);
+	}
+	private void initializeServiceMoveCount(Problem problem) {
+		serviceMoveCount=new int[problem.nrServices];
+		
+		// a service can not have more moved processes than it has processes
+		int maxServiceSize=0;
+		for (int s=0;s<problem.nrServices;s++){
+			maxServiceSize=Math.max(maxServiceSize, problem.services[s].length);
 		}
+		serviceMoveCountHistogram=new int[maxServiceSize+1];
+		serviceMoveCountHistogram[0]=problem.nrServices;
+		maxServiceMoveCount=0;
 	}
+	
 	private void initializeInverseDependencies(Problem problem) {
 		inverseDependencies=new int[problem.nrServices][];
 		HashMap<Integer, List<Integer>> inverseDependencyMap=new HashMap<Integer, List<Integer>>();
@@ -130,6 +441,32 @@ public class Assignment {
 	}
 
 
+	private void initializeDependencyCounts(Problem problem) {
+		missingDependencies=new int[problem.nrServices*problem.nrNeighbourhoods];
+		presentDependents=new int[problem.nrServices*problem.nrNeighbourhoods];
+		for (int s=0;s<problem.nrServices;s++){
+			Arrays.fill(missingDependencies, s*problem.nrNeighbourhoods, (s+1)*problem.nrNeighbourhoods, problem.serviceDependencies[s].length);
+		}
+		for (int s=0;s<problem.nrServices;s++){
+			for (int n=0;n<problem.nrNeighbourhoods;n++){
+				if (neighborHoodCount[s][n]>0) updateDependencyCounts(s, n, 1);
+			}
+		}
+	}
+	
+	/**
+	 * Updates the dependency counts when a service gets its first process in a
+	 * neighbourhood (change 1) or loses its last one (change -1)
+	 */
+	private void updateDependencyCounts(int service, int neighbourhood, int change){
+		for (int sDep : problem.serviceDependencies[service]){
+			presentDependents[sDep*problem.nrNeighbourhoods+neighbourhood]+=change;
+		}
+		for (int sInvDep : inverseDependencies[service]){
+			missingDependencies[sInvDep*problem.nrNeighbourhoods+neighbourhood]-=change;
+		}
+	}
+	
 	private void initializeNeighborhoodCount(Problem problem,
 			int[] initialAssignment) {
 		neighborHoodCount=new int[problem.nrServices][problem.nrNeighbourhoods];
@@ -160,17 +497,18 @@ public class Assignment {
 
 
 	private void initializeUsage() {
-		usage = new long[problem.nrMachines][problem.nrResources];
+		usage = new long[problem.nrMachines*problem.nrResources];
 		
 		// transientusage is initially 0 everywhere, because no process is moved
-        transientUsage = new long[problem.nrMachines][problem.nrResources];
+        transientUsage = new long[problem.nrMachines*problem.nrResources];
         
         for(int p = 0; p<problem.nrProcesses; p++) {
             
-            int m = initialAssignment[p];
+            int mBase = initialAssignment[p]*problem.nrResources;
+            int pBase = p*problem.nrResources;
             
             for(int r = 0; r<problem.nrResources; r++) {
-                usage[m][r] += problem.processReq[p][r]; 
+                usage[mBase+r] += problem.processReq[pBase+r]; 
             }
         }
 	}
@@ -182,38 +520,65 @@ public class Assignment {
 	 * @return
 	 */
 	public long evaluateDelta(int process, int machine){
-		long delta = 0;
+		int prevMachine=assignment[process];
+		return evaluateLoadDelta(process, prevMachine, machine)
+				+ evaluateBalanceDelta(process, prevMachine, machine)
+				+ evaluateMoveCostDelta(process, prevMachine, machine);
+	}
+	
+	private long evaluateLoadDelta(int process, int prevMachine, int machine){
+		long after=0;
 		
+		// offsets in the flat [machine/process, resource] arrays
+		int nrResources=problem.nrResources;
+		int prevBase=prevMachine*nrResources;
+		int newBase=machine*nrResources;
+		int procBase=process*nrResources;
 		
-		int service=problem.processServiceMap[process];
-		int prevMachine=assignment[process];
+		long[] processReq=problem.processReq;
+		long[] safetyCap=problem.safetyCap;
+		int[] resourceLoadCostWeight=problem.resourceLoadCostWeight;
 		
-		//load cost	
-		long deltaLoadPrevMachine;
-		long deltaLoadNewMachine;
-		long deltaLoadResource;
-		for(int r=0;r<problem.nrResources;r++){
-			deltaLoadPrevMachine = Math.max(0, (usage[prevMachine][r]-problem.processReq[process][r])-problem.safetyCap[prevMachine][r]) - Math.max(0, usage[prevMachine][r]-problem.safetyCap[prevMachine][r]);
-			deltaLoadNewMachine = Math.max(0, (usage[machine][r]+problem.processReq[process][r])-problem.safetyCap[machine][r]) - Math.max(0, usage[machine][r]-problem.safetyCap[machine][r]);
-			deltaLoadResource=deltaLoadPrevMachine+deltaLoadNewMachine;
-			delta+=deltaLoadResource*problem.resourceLoadCostWeight[r];
+		for(int r=0;r<nrResources;r++){
+			long req=processReq[procBase+r];
+			long prevOverload=usage[prevBase+r]-safetyCap[prevBase+r]-req;
+			long newOverload=usage[newBase+r]-safetyCap[newBase+r]+req;
+			after+=(positivePart(prevOverload)+positivePart(newOverload))*resourceLoadCostWeight[r];
 		}
-
+		return after-machineLoadCost[prevMachine]-machineLoadCost[machine];
+	}
+	
+	private long evaluateBalanceDelta(int process, int prevMachine, int machine){
+		long after=0;
+		
+		int nrResources=problem.nrResources;
+		int prevBase=prevMachine*nrResources;
+		int newBase=machine*nrResources;
+		int procBase=process*nrResources;
+		
 		//balance cost
 		for(int b = 0; b<problem.nrBalanceObj; b++) {
           int r1 = problem.balanceObj[b][0];
           int r2 = problem.balanceObj[b][1];
           int target = problem.balanceObj[b][2];
           
-          long bCostDeltaPrevMachine = Math.max(0, target*(problem.cap[prevMachine][r1]-(usage[prevMachine][r1]-problem.processReq[process][r1])) - (problem.cap[prevMachine][r2]-(usage[prevMachine][r2]-problem.processReq[process][r2]))) 
-        		  - Math.max(0, target*(problem.cap[prevMachine][r1]-(usage[prevMachine][r1])) - (problem.cap[prevMachine][r2]-(usage[prevMachine][r2])));
-          
-          long bCostDeltaNewMachine = Math.max(0, target*(problem.cap[machine][r1]-(usage[machine][r1]+problem.processReq[process][r1])) - (problem.cap[machine][r2]-(usage[machine][r2]+problem.processReq[process][r2]))) 
-        		  - Math.max(0, target*(problem.cap[machine][r1]-(usage[machine][r1])) - (problem.cap[machine][r2]-(usage[machine][r2])));
+          long req1 = problem.processReq[procBase+r1];
+          long req2 = problem.processReq[procBase+r2];
+          long prevAvailable1 = problem.cap[prevBase+r1]-usage[prevBase+r1]+req1;
+          long prevAvailable2 = problem.cap[prevBase+r2]-usage[prevBase+r2]+req2;
+          long newAvailable1 = problem.cap[newBase+r1]-usage[newBase+r1]-req1;
+          long newAvailable2 = problem.cap[newBase+r2]-usage[newBase+r2]-req2;
           
-          delta += (bCostDeltaNewMachine + bCostDeltaPrevMachine) * problem.balanceObjWeight[b];
+          after += (positivePart(target*prevAvailable1 - prevAvailable2) 
+        		  + positivePart(target*newAvailable1 - newAvailable2)) * problem.balanceObjWeight[b];
 		}
-
+		return after-machineBalanceCost[prevMachine]-machineBalanceCost[machine];
+	}
+	
+	private long evaluateMoveCostDelta(int process, int prevMachine, int machine){
+		long delta=0;
+		int service=problem.processServiceMap[process];
+		
 		//process move cost
 		if (prevMachine==initialAssignment[process] && machine !=initialAssignment[process]){
 			delta+= problem.processMoveCost[process]*problem.processMoveCostWeight;
@@ -228,27 +593,36 @@ public class Assignment {
 				delta+=problem.serviceMoveCostWeight;
 			}
 		} else if (prevMachine!=initialAssignment[process] && machine==initialAssignment[process]){			
-			if (service==serviceWithMaxMoveCount){
-				int maxCount=0;
-				for (int s=0;s<problem.nrServices;s++){
-					if (service!=s){
-						if (serviceMoveCount[s]>maxCount){
-							maxCount=serviceMoveCount[s];
-						}
-					}
-				}
-				if (maxCount<serviceMoveCount[service]){
-					delta-=problem.serviceMoveCostWeight;
-				}
+			// the maximum only decreases if this service is the only one with the maximum count
+			if (serviceMoveCount[service]==maxServiceMoveCount && serviceMoveCountHistogram[maxServiceMoveCount]==1){
+				delta-=problem.serviceMoveCostWeight;
 			}
 		}
 		
 		//machine move cost	
-		delta+= problem.machineMoveCostWeight * (problem.machineMoveCost[initialAssignment[process]][machine] - problem.machineMoveCost[initialAssignment[process]][prevMachine]);
+		delta+= problem.machineMoveCostWeight * (problem.machineMoveCost.get(initialAssignment[process], machine) - problem.machineMoveCost.get(initialAssignment[process], prevMachine));
 		
 		return delta;
 	}
 	
+	/**
+	 * Cheap lower bound on evaluateDelta(process, machine), in O(1): the load
+	 * and balance cost of the machine the process leaves can at most drop to
+	 * zero, or by the most the process can lower them, on the machine it
+	 * arrives only the balance cost can drop (the load cost only grows with
+	 * the usage). The move costs are exact.
+	 * @param process
+	 * @param machine
+	 * @return
+	 */
+	public long evaluateDeltaLowerBound(int process, int machine){
+		int prevMachine=assignment[process];
+		return evaluateMoveCostDelta(process, prevMachine, machine)
+				- Math.min(machineLoadCost[prevMachine], loadRelief[process])
+				- Math.min(machineBalanceCost[prevMachine], leaveBalanceRelief[process])
+				- Math.min(machineBalanceCost[machine], arriveBalanceRelief[process]);
+	}
+	
 	/**
 	 * Performs a single reassignment of a process. Updates all maps for the change
 	 * @param process
@@ -258,34 +632,53 @@ public class Assignment {
 		int previousMachine=assignment[process];
 		assignment[process]=machine;
 		
-		// hold the usage on the previous machine before the change (necessary for quadratic overload delta update)
-		long[] previousMachineOldUsage = Arrays.copyOf(usage[previousMachine], problem.nrResources);
+		// offsets in the flat [machine/process, resource] arrays
+		int nrResources=problem.nrResources;
+		int prevBase=previousMachine*nrResources;
+		int newBase=machine*nrResources;
+		int procBase=process*nrResources;
+		boolean leavesInitial=initialAssignment[process]==previousMachine;
+		boolean returnsInitial=initialAssignment[process]==machine;
 		
-		// hold the usage on the new machine before the change (necessary for quadratic overload delta update)
-		long[] newMachineOldUsage = Arrays.copyOf(usage[machine], problem.nrResources);
-		
-		
-		// update usage and transient usage
-		for (int r=0;r<problem.nrResources;r++){   
+		// update usage, transient usage and quadratic overload in one pass
+		long prevWeightChange=0;
+		long newWeightChange=0;
+		for (int r=0;r<nrResources;r++){
+			long req=problem.processReq[procBase+r];
 		    if(problem.transientResourceMap[r]) {
-		        if(initialAssignment[process]==previousMachine) {
-		            transientUsage[previousMachine][r] += problem.processReq[process][r];
+		        if(leavesInitial) {
+		            transientUsage[prevBase+r] += req;
 		        }
-		        if(initialAssignment[process]==machine){
-		            transientUsage[machine][r] -= problem.processReq[process][r];
+		        if(returnsInitial){
+		            transientUsage[newBase+r] -= req;
 		        }
 		    }
-			usage[previousMachine][r]-=problem.processReq[process][r];
-			usage[machine][r]+=problem.processReq[process][r];
+			long prevUsage=usage[prevBase+r]-=req;
+			long prevOverload=prevUsage-problem.safetyCap[prevBase+r];
+			prevWeightChange+=prevOverload*prevOverload-quadraticOverload[prevBase+r];
+			quadraticOverload[prevBase+r]=prevOverload*prevOverload;
+			
+			long newUsage=usage[newBase+r]+=req;
+			long newOverload=newUsage-problem.safetyCap[newBase+r];
+			newWeightChange+=newOverload*newOverload-quadraticOverload[newBase+r];
+			quadraticOverload[newBase+r]=newOverload*newOverload;
 		}
+		overloadWeights.add(previousMachine, prevWeightChange);
+		overloadWeights.add(machine, newWeightChange);
+		slackIndex.update(previousMachine, slack(previousMachine));
+		slackIndex.update(machine, slack(machine));
+		
+		updateMachineCosts(previousMachine);
+		updateMachineCosts(machine);
 		
 		//update neighborhood count
 		int service=problem.processServiceMap[process];
 		int nbefore=problem.machineNeighbourhoodMap[previousMachine];
 		int nNew=problem.machineNeighbourhoodMap[machine];
 		if (nbefore!=nNew){
-			neighborHoodCount[service][nbefore]--;
-			neighborHoodCount[service][nNew]++;
+			if (--neighborHoodCount[service][nbefore]==0) updateDependencyCounts(service, nbefore, -1);
+			if (++neighborHoodCount[service][nNew]==1) updateDependencyCounts(service, nNew, 1);
+			profileIndex.move(process, nbefore, nNew);
 		}
 		
 		//update location count
@@ -299,64 +692,53 @@ public class Assignment {
 			locationCount[service][lNew]++;
 		}
 		
+		//update process and machine move cost
+		if (leavesInitial && !returnsInitial){
+			totalProcessMoveCost+=problem.processMoveCost[process];
+		} else if (!leavesInitial && returnsInitial){
+			totalProcessMoveCost-=problem.processMoveCost[process];
+		}
+		totalMachineMoveCost+=problem.machineMoveCost.get(initialAssignment[process], machine) - problem.machineMoveCost.get(initialAssignment[process], previousMachine);
+		
 		//update service move count
 		if (previousMachine==initialAssignment[process] && machine!=initialAssignment[process]){
+			serviceMoveCountHistogram[serviceMoveCount[service]]--;
 			serviceMoveCount[service]++;
+			serviceMoveCountHistogram[serviceMoveCount[service]]++;
 			if (serviceMoveCount[service]>maxServiceMoveCount){
 				maxServiceMoveCount=serviceMoveCount[service];
-				serviceWithMaxMoveCount=service;			
 			}
 		} else if (previousMachine!=initialAssignment[process] && machine==initialAssignment[process]){
+			serviceMoveCountHistogram[serviceMoveCount[service]]--;
 			serviceMoveCount[service]--;
-			if (service==serviceWithMaxMoveCount){
-				maxServiceMoveCount=serviceMoveCount[service];
-				int maxCount=-1;
-				int maxService=-1;
-				for (int s=0;s<problem.nrServices;s++){
-					if (service!=s){
-						if (serviceMoveCount[s]>maxCount){
-							maxCount=serviceMoveCount[s];
-							maxService=s;
-						}
-					}
-				}
-				if (maxCount>serviceMoveCount[service]){
-					serviceWithMaxMoveCount=maxService;
-					maxServiceMoveCount=maxCount;
-				}
+			serviceMoveCountHistogram[serviceMoveCount[service]]++;
+			// counts change by one, so the maximum can only drop by one
+			if (serviceMoveCountHistogram[maxServiceMoveCount]==0){
+				maxServiceMoveCount--;
 			}
 		}
 		
-		//update machinemap
-		machineToProcMap.get(previousMachine).remove(process);
-		machineToProcMap.get(machine).add(process);
-		
-		//update quadraticoverload
-		for(int r = 0; r<problem.nrResources; r++) {
-			long delta = problem.processReq[process][r];
-			quadraticOverload[previousMachine][r] += (-delta)*(2*(previousMachineOldUsage[r]-problem.safetyCap[previousMachine][r]) - delta);
-			quadraticOverload[machine][r] += delta*(2*(newMachineOldUsage[r]-problem.safetyCap[machine][r]) + delta);
-		}
-		
+		//update machine to process index
+		removeFromMachine(process, previousMachine);
+		addToMachine(process, machine);
 	}
 	
 	public boolean tryMachineByCapacity(int process, int machine){
+		int mBase=machine*problem.nrResources;
+		int pBase=process*problem.nrResources;
 		for (int r=0;r<problem.nrResources;r++){
 			if (initialAssignment[process]==machine && problem.transientResourceMap[r]) continue;
-			if(usage[machine][r]+transientUsage[machine][r]+problem.processReq[process][r]>problem.cap[machine][r]) return false;		
+			if(usage[mBase+r]+transientUsage[mBase+r]+problem.processReq[pBase+r]>problem.cap[mBase+r]) return false;		
 		}
 		return true;
 	}
 	
 	public boolean tryMachineByConflict(int process, int machine){
 		int service=problem.processServiceMap[process];
-		for (int p:problem.services[service]){
-			if (p!=process){
-				if (assignment[p]==machine) return false;
-			}
-		}
+		int others=serviceMachineCount.get(service, machine);
+		if (assignment[process]==machine) others--;
 		
-		return true;
+		return others==0;
 	}
 	
 	public boolean tryMachineBySpread(int process, int machine){
@@ -389,43 +771,199 @@ public class Assignment {
 		
 
 		// check forward dependency
-	    for (int sDep : problem.serviceDependencies[service]) {
-	    	if(neighborHoodCount[sDep][nNew] == 0) return false;
-	    }
+		if (missingDependencies[service*problem.nrNeighbourhoods+nNew] > 0) return false;
 		
         //check inverse dependency
         if (neighborHoodCount[service][nPrev] > 1) return true;
-        for (int sInvDep: inverseDependencies[service]){
-        	for (int pa : problem.services[sInvDep]){
-        		int na = problem.machineNeighbourhoodMap[assignment[pa]];
-        		if (nPrev==na){
-        			return false;
-        		}
-        	}
-        }
-        
-		return true;
+        return presentDependents[service*problem.nrNeighbourhoods+nPrev] == 0;
 	}
 
 	// multi process reassignemnt, delta evaluation, domove and feasibility checks
+	/**
+	 * Delta of moving all given (distinct) processes at once. The assignment
+	 * is only read, so this can be called concurrently as long as no thread
+	 * changes the assignment.
+	 * @param processes
+	 * @param machines
+	 * @return
+	 */
 	public long evaluateDelta(int[] processes, int[] machines){
+		if (processes.length==1) return evaluateDelta(processes[0], machines[0]);
+		
 		long delta=0;
 		
-		int[] oldMachines=new int[machines.length];
-		for (int i = 0; i < oldMachines.length; i++) {
-			oldMachines[i]=assignment[processes[i]];
+		//load and balance cost, once per machine that loses or gains processes
+		for (int i = 0; i < processes.length; i++) {
+			int prevMachine=assignment[processes[i]];
+			if (prevMachine==machines[i]) continue;
+			if (!affectedBefore(prevMachine, i, processes, machines)) delta+=evaluateMachineDelta(prevMachine, processes, machines);
+			if (!affectedBefore(machines[i], i, processes, machines)) delta+=evaluateMachineDelta(machines[i], processes, machines);
+		}
+		
+		//process and machine move cost
+		for (int i = 0; i < processes.length; i++) {
+			int process=processes[i];
+			int prevMachine=assignment[process];
+			int machine=machines[i];
+			if (prevMachine==initialAssignment[process] && machine !=initialAssignment[process]){
+				delta+= problem.processMoveCost[process]*problem.processMoveCostWeight;
+			} else if (prevMachine!=initialAssignment[process] && machine==initialAssignment[process]){
+				delta-= problem.processMoveCost[process]*problem.processMoveCostWeight;
+			}
+			delta+= problem.machineMoveCostWeight * (problem.machineMoveCost.get(initialAssignment[process], machine) - problem.machineMoveCost.get(initialAssignment[process], prevMachine));
+		}
+		
+		//service move cost: the new maximum is either a new count of a moved service,
+		//or the highest count of the services that are not involved
+		int newMaxServiceMoveCount=0;
+		for (int i = 0; i < processes.length; i++) {
+			int service=problem.processServiceMap[processes[i]];
+			if (serviceBefore(service, i, processes)) continue;
+			int count=serviceMoveCount[service];
+			for (int j = i; j < processes.length; j++) {
+				int process=processes[j];
+				if (problem.processServiceMap[process]!=service) continue;
+				if (assignment[process]==initialAssignment[process] && machines[j]!=initialAssignment[process]) count++;
+				else if (assignment[process]!=initialAssignment[process] && machines[j]==initialAssignment[process]) count--;
+			}
+			newMaxServiceMoveCount=Math.max(newMaxServiceMoveCount, count);
+		}
+		for (int count = maxServiceMoveCount; count > newMaxServiceMoveCount; count--) {
+			if (serviceMoveCountHistogram[count]>nrOfMovedServicesWithCount(count, processes)){
+				newMaxServiceMoveCount=count;
+				break;
+			}
+		}
+		delta+=(newMaxServiceMoveCount-maxServiceMoveCount)*problem.serviceMoveCostWeight;
+		
+		return delta;
+	}
+	
+	/**
+	 * Cheap lower bound on evaluateDelta(processes, machines): the load and
+	 * balance cost of every affected machine can at most drop to zero, or by
+	 * the most the processes that leave and arrive can lower them, and the
+	 * maximum service move count can at most drop by one per process that
+	 * returns to its initial machine. The process and machine move costs are
+	 * exact.
+	 * @param processes
+	 * @param machines
+	 * @return
+	 */
+	public long evaluateDeltaLowerBound(int[] processes, int[] machines){
+		long bound=0;
+		for (int i = 0; i < processes.length; i++) {
+			int process=processes[i];
+			int prevMachine=assignment[process];
+			int machine=machines[i];
+			if (prevMachine==machine) continue;
+			if (!affectedBefore(prevMachine, i, processes, machines)) bound-=machineCostRelief(prevMachine, processes, machines);
+			if (!affectedBefore(machine, i, processes, machines)) bound-=machineCostRelief(machine, processes, machines);
+			if (prevMachine==initialAssignment[process]){
+				bound+= problem.processMoveCost[process]*problem.processMoveCostWeight;
+			} else if (machine==initialAssignment[process]){
+				bound-= problem.processMoveCost[process]*problem.processMoveCostWeight + problem.serviceMoveCostWeight;
+			}
+			bound+= problem.machineMoveCostWeight * (problem.machineMoveCost.get(initialAssignment[process], machine) - problem.machineMoveCost.get(initialAssignment[process], prevMachine));
 		}
-		for (int i = 0; i < machines.length; i++) {
-			delta+=evaluateDelta(processes[i], machines[i]);
-			if (i!=machines.length-1) doMove(processes[i], machines[i]);
+		return bound;
+	}
+	
+	/**
+	 * @return the most the load and balance cost of the machine can drop in a compound move
+	 */
+	private long machineCostRelief(int machine, int[] processes, int[] machines){
+		long load=0;
+		long balance=0;
+		for (int j = 0; j < processes.length; j++) {
+			int process=processes[j];
+			if (assignment[process]==machines[j]) continue;
+			if (assignment[process]==machine){
+				load+=loadRelief[process];
+				balance+=leaveBalanceRelief[process];
+			} else if (machines[j]==machine){
+				balance+=arriveBalanceRelief[process];
+			}
 		}
-		for (int i = 0; i < machines.length-1; i++) {
-			doMove(processes[i], oldMachines[i]);
+		return Math.min(machineLoadCost[machine], load)+Math.min(machineBalanceCost[machine], balance);
+	}
+	
+	/**
+	 * Load and balance cost delta of a single machine in a compound move
+	 */
+	private long evaluateMachineDelta(int machine, int[] processes, int[] machines){
+		long delta=0;
+		int mBase=machine*problem.nrResources;
+		
+		for (int r=0;r<problem.nrResources;r++){
+			long change=usageChange(machine, r, processes, machines);
+			if (change==0) continue;
+			long overload=usage[mBase+r]-problem.safetyCap[mBase+r];
+			delta+=(positivePart(overload+change) - positivePart(overload))*problem.resourceLoadCostWeight[r];
 		}
 		
+		for(int b = 0; b<problem.nrBalanceObj; b++) {
+			int r1 = problem.balanceObj[b][0];
+			int r2 = problem.balanceObj[b][1];
+			int target = problem.balanceObj[b][2];
+			
+			long change1=usageChange(machine, r1, processes, machines);
+			long change2=usageChange(machine, r2, processes, machines);
+			if (change1==0 && change2==0) continue;
+			long available1 = problem.cap[mBase+r1]-usage[mBase+r1];
+			long available2 = problem.cap[mBase+r2]-usage[mBase+r2];
+			
+			long bCostDelta = positivePart(target*(available1-change1) - (available2-change2)) 
+					- positivePart(target*available1 - available2);
+			delta += bCostDelta * problem.balanceObjWeight[b];
+		}
 		return delta;
 	}
 	
+	/**
+	 * @return the change of the usage of resource r on the machine by a compound move
+	 */
+	private long usageChange(int machine, int r, int[] processes, int[] machines){
+		long change=0;
+		for (int j = 0; j < processes.length; j++) {
+			int process=processes[j];
+			if (assignment[process]==machines[j]) continue;
+			if (assignment[process]==machine) change-=problem.processReq[process*problem.nrResources+r];
+			else if (machines[j]==machine) change+=problem.processReq[process*problem.nrResources+r];
+		}
+		return change;
+	}
+	
+	/**
+	 * @return whether the machine is the old or new machine of one of the moves before move i
+	 */
+	private boolean affectedBefore(int machine, int i, int[] processes, int[] machines){
+		for (int j = 0; j < i; j++) {
+			if (assignment[processes[j]]==machines[j]) continue;
+			if (assignment[processes[j]]==machine || machines[j]==machine) return true;
+		}
+		return false;
+	}
+	
+	private boolean serviceBefore(int service, int i, int[] processes){
+		for (int j = 0; j < i; j++) {
+			if (problem.processServiceMap[processes[j]]==service) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return the number of distinct services of the moved processes that currently have the given move count
+	 */
+	private int nrOfMovedServicesWithCount(int count, int[] processes){
+		int n=0;
+		for (int i = 0; i < processes.length; i++) {
+			int service=problem.processServiceMap[processes[i]];
+			if (serviceMoveCount[service]==count && !serviceBefore(service, i, processes)) n++;
+		}
+		return n;
+	}
+	
 	public void doMove(int[] processes, int[] machines){
 		for (int i = 0; i < processes.length; i++) {
 			doMove(processes[i], machines[i]);
@@ -433,95 +971,111 @@ public class Assignment {
 	}
 	
 	public boolean tryMachineByCapacity(int[] processes, int[] machines){
-		
-		HashMap<Integer, Set<Integer>> machineToNewProcessesMap=new HashMap<Integer, Set<Integer>>();
-		HashMap<Integer, Set<Integer>> machineToLeavingProcessesMap=new HashMap<Integer, Set<Integer>>();
 		for (int i = 0; i < processes.length; i++) {
 			int machine = machines[i];
+			if (targetBefore(machine, i, machines)) continue;
 			
-			int process=processes[i];
-			int prevMachine = assignment[process];
-			
-			if (!machineToNewProcessesMap.containsKey(machine)) machineToNewProcessesMap.put(machine, new HashSet<Integer>());
-			machineToNewProcessesMap.get(machine).add(process);
-			if (!machineToLeavingProcessesMap.containsKey(prevMachine)) machineToLeavingProcessesMap.put(prevMachine, new HashSet<Integer>());
-			machineToLeavingProcessesMap.get(prevMachine).add(process);
-		}
-		for (int machine:machineToNewProcessesMap.keySet()){
+			int mBase=machine*problem.nrResources;
 			for (int r=0;r<problem.nrResources;r++){
+				// requests of the processes that arrive minus those that leave
 				long sumOfRequests=0;
-				for (int process:machineToNewProcessesMap.get(machine)){
+				for (int j = 0; j < processes.length; j++) {
+					int process=processes[j];
 					if (initialAssignment[process]==machine && problem.transientResourceMap[r]) continue;
-					sumOfRequests+=problem.processReq[process][r];
-				}
-				if (machineToLeavingProcessesMap.containsKey(machine)){
-					for(int process:machineToLeavingProcessesMap.get(machine)) {
-						if (initialAssignment[process]==machine && problem.transientResourceMap[r]) continue;
-						sumOfRequests-=problem.processReq[process][r];
-					}
+					if (machines[j]==machine) sumOfRequests+=problem.processReq[process*problem.nrResources+r];
+					if (assignment[process]==machine) sumOfRequests-=problem.processReq[process*problem.nrResources+r];
 				}
 				
-				if(usage[machine][r]+transientUsage[machine][r]+sumOfRequests>problem.cap[machine][r]) return false;		
+				if(usage[mBase+r]+transientUsage[mBase+r]+sumOfRequests>problem.cap[mBase+r]) return false;		
 			}
 		}
 
 		return true;
 	}
 	
+	private static boolean targetBefore(int machine, int i, int[] machines){
+		for (int j = 0; j < i; j++) {
+			if (machines[j]==machine) return true;
+		}
+		return false;
+	}
+	
 	
 	public boolean tryMachineByConflict(int[] processes, int[] machines){
-		HashMap<Integer,Integer> changingProcesses=new HashMap<Integer,Integer>(processes.length);
-		for (int i = 0; i < machines.length; i++) {
-			changingProcesses.put(processes[i], machines[i]);
-		}
-		
 		for (int i = 0; i < processes.length; i++) {
 			int process=processes[i];
 			int machine=machines[i];
 			int service=problem.processServiceMap[process];
-			for (int p:problem.services[service]){
-				if (p!=process ){
-					if (!changingProcesses.containsKey(p)){
-						if (assignment[p]==machine) return false;
-					} else {
-						if (machine==changingProcesses.get(p)) return false;
-					}
+			
+			// processes of the service that stay on the target machine
+			int others=serviceMachineCount.get(service, machine);
+			if (assignment[process]==machine) others--;
+			for (int j = 0; j < processes.length; j++) {
+				if (j!=i && problem.processServiceMap[processes[j]]==service){
+					if (machines[j]==machine) return false;
+					if (assignment[processes[j]]==machine) others--;
 				}
 			}
+			if (others>0) return false;
 		}
 		return true;
 	}
 	
 	public boolean tryMachineBySpread(int[] processes, int[] machines){
-		
-		HashMap<Integer, HashMap<Integer,Integer>> serviceToProcessMap=new HashMap<Integer, HashMap<Integer,Integer>>();
 		for (int i = 0; i < processes.length; i++) {
 			int service=problem.processServiceMap[processes[i]];
-			if (!serviceToProcessMap.containsKey(service)) serviceToProcessMap.put(service, new HashMap<Integer,Integer>());
-			serviceToProcessMap.get(service).put(processes[i],i);
-		}
-		
-		for (int service:serviceToProcessMap.keySet()){
-	        Set<Integer> locations = new HashSet<Integer>();
-	        
-	        for(int p : problem.services[service]) {
-	        	if (!serviceToProcessMap.get(service).containsKey(p)){
-	                int l = problem.machineLocationMap[assignment[p]];             
-	                locations.add(l);
-	        	} else {
-	        		int machine = machines[serviceToProcessMap.get(service).get(p)];
-	                int l = problem.machineLocationMap[machine];             
-	                locations.add(l);
-	        	}
-
-	        }
-	        if(locations.size() < problem.serviceSpreadMin[service]) return false;
+			if (serviceBefore(service, i, processes)) continue;
+			
+			// correct the spread for every location that the moves of this service leave or enter
+			int spread=serviceSpread[service];
+			for (int j = i; j < processes.length; j++) {
+				int process=processes[j];
+				if (problem.processServiceMap[process]!=service) continue;
+				int lPrev=problem.machineLocationMap[assignment[process]];
+				int lNew=problem.machineLocationMap[machines[j]];
+				if (lPrev==lNew) continue;
+				if (!locationBefore(service, lPrev, j, processes, machines)) spread+=spreadChange(service, lPrev, processes, machines);
+				if (!locationBefore(service, lNew, j, processes, machines)) spread+=spreadChange(service, lNew, processes, machines);
+			}
+			if(spread < problem.serviceSpreadMin[service]) return false;
 		}
-		
 
         return true;
 	}
 	
+	/**
+	 * @return +1 if the service starts using the location by the moves, -1 if it no longer uses it, 0 otherwise
+	 */
+	private int spreadChange(int service, int location, int[] processes, int[] machines){
+		int count=locationCount[service][location];
+		for (int j = 0; j < processes.length; j++) {
+			int process=processes[j];
+			if (problem.processServiceMap[process]!=service) continue;
+			int lPrev=problem.machineLocationMap[assignment[process]];
+			int lNew=problem.machineLocationMap[machines[j]];
+			if (lPrev==lNew) continue;
+			if (lPrev==location) count--;
+			if (lNew==location) count++;
+		}
+		if (locationCount[service][location]==0) return count>0 ? 1 : 0;
+		return count==0 ? -1 : 0;
+	}
+	
+	/**
+	 * @return whether the location is left or entered by a move of the service before move j
+	 */
+	private boolean locationBefore(int service, int location, int j, int[] processes, int[] machines){
+		for (int i = 0; i < j; i++) {
+			int process=processes[i];
+			if (problem.processServiceMap[process]!=service) continue;
+			int lPrev=problem.machineLocationMap[assignment[process]];
+			int lNew=problem.machineLocationMap[machines[i]];
+			if (lPrev==lNew) continue;
+			if (lPrev==location || lNew==location) return true;
+		}
+		return false;
+	}
+	
 	public boolean tryMachineByDependency(int[] processes, int[] machines){
 		
 		for (int i = 0; i < processes.length; i++) {
@@ -538,44 +1092,13 @@ public class Assignment {
 
 			// check forward dependency
 		    for (int sDep : problem.serviceDependencies[service]) {
-		    	int[] neighbourhoods = Arrays.copyOf(neighborHoodCount[sDep],neighborHoodCount[sDep].length);   
-		    	for (int j = 0; j < processes.length; j++) {
-					if (j!=i){
-						if (problem.processServiceMap[processes[j]]==sDep){
-							int nPrevJ=problem.machineNeighbourhoodMap[assignment[processes[j]]];
-							int nNewJ=problem.machineNeighbourhoodMap[machines[j]];
-							if (nPrevJ==nNewJ) continue;
-							neighbourhoods[nPrevJ]--;
-							neighbourhoods[nNewJ]++;
-						}
-					}
-				}
-		    	if (neighbourhoods[nNew] == 0) 
-		    		return false;
+		    	if (neighbourhoodCountAfter(sDep, nNew, processes, machines) == 0) return false;
 		    }
 			
 	        //check inverse dependency
-		    int prevNDecrease=1;
-		    for (int j = 0; j < processes.length; j++) {
-				if (i!=j){
-					int nPrevJ=problem.machineNeighbourhoodMap[assignment[processes[j]]];
-					int nNewJ=problem.machineNeighbourhoodMap[machines[j]];
-					if (nPrevJ==nPrev && nPrevJ!=nNewJ && service==problem.processServiceMap[processes[j]]) prevNDecrease++;
-					if (nPrevJ != nNewJ && nNewJ == nPrev && service==problem.processServiceMap[processes[j]]) prevNDecrease--;
-				}
-			}
-	        if (neighborHoodCount[service][nPrev]-prevNDecrease>0) continue;
+	        if (neighbourhoodCountAfter(service, nPrev, processes, machines) > 0) continue;
 	        for (int sInvDep: inverseDependencies[service]){
-	        	for (int pa : problem.services[sInvDep]){
-	        		int na = problem.machineNeighbourhoodMap[assignment[pa]];
-	        		int index = -1;
-	        		if((index = contains(processes, pa)) != -1) {
-	        			na = problem.machineNeighbourhoodMap[machines[index]];
-	        		}
-	        		if (nPrev==na){
-	        			return false;
-	        		}
-	        	}
+	        	if (neighbourhoodCountAfter(sInvDep, nPrev, processes, machines) > 0) return false;
 	        }
 		}
         
@@ -584,12 +1107,22 @@ public class Assignment {
 	
 	
 	
-	private int contains(int[] processes, int p) {
-		for(int i = 0; i<processes.length; i++) {
-			if(processes[i] == p)
-				return i;
+	/**
+	 * @return the number of processes of the service in the neighbourhood
+	 *         after moving the given processes to the given machines
+	 */
+	private int neighbourhoodCountAfter(int service, int neighbourhood, int[] processes, int[] machines) {
+		int count=neighborHoodCount[service][neighbourhood];
+		for (int j = 0; j < processes.length; j++) {
+			if (problem.processServiceMap[processes[j]]==service){
+				int nPrevJ=problem.machineNeighbourhoodMap[assignment[processes[j]]];
+				int nNewJ=problem.machineNeighbourhoodMap[machines[j]];
+				if (nPrevJ==nNewJ) continue;
+				if (nPrevJ==neighbourhood) count--;
+				if (nNewJ==neighbourhood) count++;
+			}
 		}
-		return -1;
+		return count;
 	}
 	
 	
@@ -598,22 +1131,23 @@ public class Assignment {
 		
 		for (int m=0;m<2;m++){
 			int machine=machines[m];
+			int mBase=machine*problem.nrResources;
 			for (int r=0;r<problem.nrResources;r++){
 				long sumOfRequests=0;
 				int process=processes[m];
 					if ( !(initialAssignment[process]==machine && problem.transientResourceMap[r])){
-						sumOfRequests+=problem.processReq[process][r];
+						sumOfRequests+=problem.processReq[process*problem.nrResources+r];
 					}
 
 					process=processes[m==0?1:0];
 					
 						if ( !(initialAssignment[process]==machine && problem.transientResourceMap[r])) {
-							sumOfRequests-=problem.processReq[process][r];
+							sumOfRequests-=problem.processReq[process*problem.nrResources+r];
 						}
 					
 				
 				
-				if(usage[machine][r]+transientUsage[machine][r]+sumOfRequests>problem.cap[machine][r]) return false;		
+				if(usage[mBase+r]+transientUsage[mBase+r]+sumOfRequests>problem.cap[mBase+r]) return false;		
 			}
 		}
 
@@ -662,66 +1196,7 @@ public class Assignment {
 			return tryMachineByDependency(p1, m1new) && tryMachineByDependency(p2, m2new);
 		}
 		
-		
-		
-		for (int i = 0; i < processes.length; i++) {
-			int process=processes[i];
-			int machine=machines[i];
-			int service=problem.processServiceMap[process];
-			
-			
-			int nPrev = problem.machineNeighbourhoodMap[assignment[process]];
-			int nNew = problem.machineNeighbourhoodMap[machine];
-			
-			if (nPrev==nNew) continue;
-			
-
-			// check forward dependency
-		    for (int sDep : problem.serviceDependencies[service]) {
-		    	int[] neighbourhoods = Arrays.copyOf(neighborHoodCount[sDep],neighborHoodCount[sDep].length);   
-		    	for (int j = 0; j < processes.length; j++) {
-					if (j!=i){
-						if (problem.processServiceMap[processes[j]]==sDep){
-							int nPrevJ=problem.machineNeighbourhoodMap[assignment[processes[j]]];
-							int nNewJ=problem.machineNeighbourhoodMap[machines[j]];
-							if (nPrevJ==nNewJ) continue;
-							neighbourhoods[nPrevJ]--;
-							neighbourhoods[nNewJ]++;
-						}
-					}
-				}
-		    	if (neighbourhoods[nNew] == 0) 
-		    		return false;
-		    }
-			
-	        //check inverse dependency
-		    int prevNDecrease=1;
-		    for (int j = 0; j < processes.length; j++) {
-				if (i!=j){
-					int nPrevJ=problem.machineNeighbourhoodMap[assignment[processes[j]]];
-					int nNewJ=problem.machineNeighbourhoodMap[machines[j]];
-					if (nPrevJ==nPrev && nPrevJ!=nNewJ && service==problem.processServiceMap[processes[j]]) prevNDecrease++;
-					if (nPrevJ != nNewJ && nNewJ == nPrev && service==problem.processServiceMap[processes[j]]) prevNDecrease--;
-				}
-			}
-	        if (neighborHoodCount[service][nPrev]-prevNDecrease>0) continue;
-	        for (int sInvDep: inverseDependencies[service]){
-	        	for (int pa : problem.services[sInvDep]){
-	        		int na = problem.machineNeighbourhoodMap[assignment[pa]];
-	        		int index = -1;
-	        		if((index = contains(processes, pa)) != -1) {
-	        			na = problem.machineNeighbourhoodMap[machines[index]];
-	        		}
-	        		if (nPrev==na){
-	        			return false;
-	        		}
-	        	}
-	        }
-		}
-		
-
-        
-		return true;
+		return tryMachineByDependency(processes, machines);
 	}
 		
 	public boolean tryMachineBySpreadSwap(int[] processes, int[] machines){
@@ -743,7 +1218,7 @@ public class Assignment {
 		return initialAssignment;
 	}
 
-	public long[][] getTransientUsage() {
+	public long[] getTransientUsage() {
 		return transientUsage;
 	}
 	
@@ -752,17 +1227,138 @@ public class Assignment {
 		return assignment;
 	}
 
-	public long[][] getUsage() {
+	public long[] getUsage() {
 		return usage;
 	}
 	
-	public Map<Integer, Set<Integer>> getMachineToProcMap() {
-		return machineToProcMap;
+	/**
+	 * @param machine
+	 * @return the number of processes currently assigned to a machine
+	 */
+	public int getNrOfProcessesOnMachine(int machine) {
+		return machineProcessCount[machine];
+	}
+	
+	/**
+	 * Random access to the processes on a machine. The order of the processes
+	 * is arbitrary and changes when processes are moved.
+	 * @param machine
+	 * @param index in [0, getNrOfProcessesOnMachine(machine))
+	 * @return
+	 */
+	public int getProcessOnMachine(int machine, int index) {
+		return machineProcesses[machine][index];
 	}
 	
-	public long[][] getQuadraticOverload() {
+	/**
+	 * @return the current objective value, maintained incrementally (equal to
+	 *         AssignmentHelper.evaluate)
+	 */
+	public long getObjective() {
+		return totalLoadCost + totalBalanceCost
+				+ totalProcessMoveCost * problem.processMoveCostWeight
+				+ maxServiceMoveCount * (long) problem.serviceMoveCostWeight
+				+ totalMachineMoveCost * problem.machineMoveCostWeight;
+	}
+	
+	public ObjectiveBreakdown getObjectiveBreakdown() {
+		return new ObjectiveBreakdown(totalLoadCost, totalBalanceCost,
+				totalProcessMoveCost * problem.processMoveCostWeight,
+				maxServiceMoveCount * (long) problem.serviceMoveCostWeight,
+				totalMachineMoveCost * problem.machineMoveCostWeight);
+	}
+	
+	/**
+	 * @param machine
+	 * @return the current weighted load cost of the machine
+	 */
+	public long getMachineLoadCost(int machine) {
+		return machineLoadCost[machine];
+	}
+	
+	/**
+	 * @param machine
+	 * @return the current weighted balance cost of the machine
+	 */
+	public long getMachineBalanceCost(int machine) {
+		return machineBalanceCost[machine];
+	}
+	
+	public long[] getQuadraticOverload() {
 		return quadraticOverload;
 	}
 	
+	/**
+	 * Roulette wheel selection of a machine, with probability proportional to
+	 * its overload weight: the sum over its resources of quadraticOverload+1.
+	 * O(log nrMachines).
+	 * @param rand
+	 * @return the selected machine
+	 */
+	public int selectMachineByOverload(Random rand) {
+		return overloadWeights.find((long)(rand.nextDouble()*overloadWeights.total()));
+	}
+	
+	/**
+	 * Samples a target machine for a process, to avoid drawing machines that
+	 * can not hold it. Processes that do not fit on every machine are sampled
+	 * from the machines that can hold them when empty, the others from the
+	 * machines with enough remaining capacity of the slack resource (or from
+	 * all machines if there are none). The other constraints are not checked.
+	 * @param process
+	 * @param rand
+	 * @return the sampled machine, this can be the current machine of the process
+	 */
+	public int sampleTargetMachine(int process, Random rand) {
+		int[] eligible=eligibleMachines[process];
+		if (eligible!=null) return eligible[rand.nextInt(eligible.length)];
+		return slackIndex.sample(problem.processReq[process*problem.nrResources+slackResource], rand);
+	}
+	
+	/**
+	 * Samples a swap partner for a process. The neighbourhood of the partner is
+	 * that of a random process, so the neighbourhoods are drawn in proportion
+	 * to their number of processes. Within it the partner is drawn among the
+	 * processes whose requirement of the slack resource fits on the machine of
+	 * the process once the process has left. It is kept if the process fits on
+	 * the machine of the partner in the same way, and, for another
+	 * neighbourhood, if both processes can move to the other neighbourhood
+	 * without breaking a dependency. A few draws are tried. The other
+	 * constraints are not checked.
+	 * @param process
+	 * @param rand
+	 * @return the sampled process, on another machine, or -1 if no draw was
+	 *         accepted
+	 */
+	public int sampleSwapPartner(int process, Random rand) {
+		int machine=assignment[process];
+		int neighbourhood=problem.machineNeighbourhoodMap[machine];
+		long req=problem.processReq[process*problem.nrResources+slackResource];
+		long room=slack(machine)+req;
+		
+		// all processes in a neighbourhood of one machine are on the same machine
+		boolean ownNeighbourhood=problem.neighbourhoods[neighbourhood].length>1;
+		for (int attempt=0;attempt<SWAP_PARTNER_ATTEMPTS;attempt++){
+			int target=problem.machineNeighbourhoodMap[assignment[rand.nextInt(problem.nrProcesses)]];
+			if (target==neighbourhood && !ownNeighbourhood) continue;
+			
+			// the cheap capacity filters first, the dependencies only for a partner that fits
+			int partner=profileIndex.sample(target, room, rand);
+			if (partner<0 || assignment[partner]==machine) continue;
+			if (req>slack(assignment[partner])+problem.processReq[partner*problem.nrResources+slackResource]) continue;
+			if (target!=neighbourhood && !(tryNeighbourhoodByDependency(process, target) && tryNeighbourhoodByDependency(partner, neighbourhood))) continue;
+			return partner;
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return true if moving the process alone to the neighbourhood does not
+	 *         break a dependency
+	 */
+	private boolean tryNeighbourhoodByDependency(int process, int neighbourhood){
+		return tryMachineByDependency(process, problem.neighbourhoods[neighbourhood][0]);
+	}
+	
 
 }
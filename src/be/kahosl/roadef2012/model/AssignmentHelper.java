@@ -18,10 +18,8 @@ package be.kahosl.roadef2012.model;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Scanner;
 import java.util.Set;
 
 /**
@@ -53,19 +51,19 @@ public class AssignmentHelper {
 			int[] initialAssignment, int[] assignment) {
 		boolean feasible = true;
 
-		int[][] usage = new int[problem.nrMachines][problem.nrResources];
+		long[] usage = new long[problem.nrMachines * problem.nrResources];
 
 		for (int p = 0; p < problem.nrProcesses; p++) {
 
 			int m = assignment[p];
 
 			for (int r = 0; r < problem.nrResources; r++) {
-				usage[m][r] += problem.processReq[p][r];
+				usage[m*problem.nrResources+r] += problem.processReq[p*problem.nrResources+r];
 
 				if (problem.transientResourceMap[r]) {
 					int m0 = initialAssignment[p];
 					if (m0 != m) {
-						usage[m0][r] += problem.processReq[p][r];
+						usage[m0*problem.nrResources+r] += problem.processReq[p*problem.nrResources+r];
 					}
 				}
 
@@ -75,13 +73,13 @@ public class AssignmentHelper {
 		for (int m = 0; m < problem.nrMachines; m++) {
 			for (int tr : problem.transientResources) {
 
-				if (usage[m][tr] > problem.cap[m][tr]) {
+				if (usage[m*problem.nrResources+tr] > problem.cap[m*problem.nrResources+tr]) {
 
 					if (debug)
 						System.out.println("Transient usage constraint "
 								+ "violation on machine " + m + " resource "
-								+ tr + ": transient_usage = " + usage[m][tr]
-								+ ", capacity = " + problem.cap[m][tr]);
+								+ tr + ": transient_usage = " + usage[m*problem.nrResources+tr]
+								+ ", capacity = " + problem.cap[m*problem.nrResources+tr]);
 					feasible = false;
 				}
 			}
@@ -192,14 +190,14 @@ public class AssignmentHelper {
 	public static boolean checkCapacityConstraint(Problem problem,
 			int[] assignment) {
 
-		int[][] usage = new int[problem.nrMachines][problem.nrResources];
+		long[] usage = new long[problem.nrMachines * problem.nrResources];
 
 		for (int p = 0; p < problem.nrProcesses; p++) {
 
 			int m = assignment[p];
 
 			for (int r = 0; r < problem.nrResources; r++) {
-				usage[m][r] += problem.processReq[p][r];
+				usage[m*problem.nrResources+r] += problem.processReq[p*problem.nrResources+r];
 			}
 		}
 
@@ -207,7 +205,7 @@ public class AssignmentHelper {
 		for (int m = 0; m < problem.nrMachines; m++) {
 			for (int r = 0; r < problem.nrResources; r++) {
 
-				if (usage[m][r] > problem.cap[m][r]) {
+				if (usage[m*problem.nrResources+r] > problem.cap[m*problem.nrResources+r]) {
 
 					if (debug)
 						System.out
@@ -216,9 +214,9 @@ public class AssignmentHelper {
 										+ ", resource "
 										+ r
 										+ ": usage = "
-										+ usage[m][r]
+										+ usage[m*problem.nrResources+r]
 										+ ", capacity = "
-										+ problem.cap[m][r]);
+										+ problem.cap[m*problem.nrResources+r]);
 					feasible = false;
 				}
 			}
@@ -229,27 +227,29 @@ public class AssignmentHelper {
 	public static long evaluate(Problem problem, int[] initialAssignment,
 			int[] assignment) {
 
-		long[][] usage = new long[problem.nrMachines][problem.nrResources];
+		long[] usage = new long[problem.nrMachines * problem.nrResources];
 
 		for (int p = 0; p < problem.nrProcesses; p++) {
 
 			int m = assignment[p];
 
 			for (int r = 0; r < problem.nrResources; r++) {
-				usage[m][r] += problem.processReq[p][r];
+				usage[m*problem.nrResources+r] += problem.processReq[p*problem.nrResources+r];
 			}
 		}
 
-		// determine totalLoadCost
-		long totalLoadCost = 0;
-		for (int r = 0; r < problem.nrResources; r++) {
-
-			long loadCostR = 0;
-			for (int m = 0; m < problem.nrMachines; m++) {
-				loadCostR += Math.max(0, usage[m][r] - problem.safetyCap[m][r]);
+		// determine totalLoadCost, machine by machine to walk the flat arrays in order
+		long[] loadCost = new long[problem.nrResources];
+		for (int m = 0; m < problem.nrMachines; m++) {
+			int base = m * problem.nrResources;
+			for (int r = 0; r < problem.nrResources; r++) {
+				loadCost[r] += positivePart(usage[base+r] - problem.safetyCap[base+r]);
 			}
+		}
 
-			totalLoadCost += problem.resourceLoadCostWeight[r] * loadCostR;
+		long totalLoadCost = 0;
+		for (int r = 0; r < problem.nrResources; r++) {
+			totalLoadCost += problem.resourceLoadCostWeight[r] * loadCost[r];
 		}
 
 		// determine totalBalanceCost
@@ -263,9 +263,9 @@ public class AssignmentHelper {
 			int target = problem.balanceObj[b][2];
 
 			for (int m = 0; m < problem.nrMachines; m++) {
-				balanceCostB += Math.max(0, target
-						* (problem.cap[m][r1] - usage[m][r1])
-						- (problem.cap[m][r2] - usage[m][r2]));
+				balanceCostB += positivePart(target
+						* (problem.cap[m*problem.nrResources+r1] - usage[m*problem.nrResources+r1])
+						- (problem.cap[m*problem.nrResources+r2] - usage[m*problem.nrResources+r2]));
 			}
 
 			totalBalanceCost += problem.balanceObjWeight[b] * balanceCostB;
@@ -296,7 +296,7 @@ public class AssignmentHelper {
 		// determine machineMoveCost
 		long totalMachineMoveCost = 0;
 		for (int p = 0; p < problem.nrProcesses; p++) {
-			totalMachineMoveCost += problem.machineMoveCost[initialAssignment[p]][assignment[p]];
+			totalMachineMoveCost += problem.machineMoveCost.get(initialAssignment[p], assignment[p]);
 		}
 
 		long totalCost = totalLoadCost + totalBalanceCost
@@ -307,28 +307,31 @@ public class AssignmentHelper {
 		return totalCost;
 	}
 
-	public static int[] loadSolution(File file) throws IOException {
-
-		Scanner sc = null;
-		try {
-			sc = new Scanner(file);
-			List<Integer> temp = new ArrayList<Integer>();
+	/**
+	 * Branch free max(0, value), used for the load and balance cost terms.
+	 * Unlike Math.max this compiles to plain shift and mask instructions,
+	 * which the JIT can also use in vectorized loops.
+	 * @param value
+	 * @return
+	 */
+	static long positivePart(long value) {
+		return value & ~(value >> 63);
+	}
 
-			while (sc.hasNextInt()) {
-				temp.add(sc.nextInt());
-			}
+	public static int[] loadSolution(File file) throws IOException {
 
-			int[] assignments = new int[temp.size()];
+		TokenReader in = TokenReader.open(file);
+		int[] assignments = new int[1024];
+		int size = 0;
 
-			for (int i = 0; i < temp.size(); i++) {
-				assignments[i] = temp.get(i);
+		while (in.hasNext()) {
+			if (size == assignments.length) {
+				assignments = Arrays.copyOf(assignments, 2 * size);
 			}
-
-			return assignments;
-		} finally {
-			if (sc != null)
-				sc.close();
+			assignments[size++] = in.nextInt();
 		}
+
+		return Arrays.copyOf(assignments, size);
 	}
 
 	public static void writeSolution(File file, int[] assignments)
@@ -0,0 +1,342 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact representation of the [machine, machine] move cost matrix.
+ *
+ * The matrices of the challenge are highly structured: many machines share the
+ * same row (e.g. all machines of a location) and the same column, and the
+ * costs are small. Machines are therefore mapped on a row class and a column
+ * class, and only the (much smaller) table of distinct rows x distinct columns
+ * is stored, as bytes when all costs fit. A lookup stays O(1): two class
+ * lookups and one table lookup.
+ *
+ * The representation is chosen by the {@link Builder}, which receives the
+ * rows one by one, so the dense matrix is never held in memory.
+ */
+public abstract class MachineMoveCost {
+
+	protected final int[] rowClass; // [machine] row class of a machine
+	protected final int[] columnClass; // [machine] column class of a machine
+
+	private MachineMoveCost(int[] rowClass, int[] columnClass) {
+		this.rowClass = rowClass;
+		this.columnClass = columnClass;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 * @return the cost of moving a process from machine 'from' to machine 'to'
+	 */
+	public abstract int get(int from, int to);
+
+	public int getNrMachines() {
+		return rowClass.length;
+	}
+
+	public abstract int getNrRowClasses();
+
+	public abstract int getNrColumnClasses();
+
+	/**
+	 * @return the cost from the machines of a row class to the machines of a
+	 *         column class
+	 */
+	abstract int getClassCost(int row, int column);
+
+	/**
+	 * @return true if the table is stored as bytes
+	 */
+	abstract boolean isByteTable();
+
+	/**
+	 * Rebuilds a byte table from its classes, e.g. from a snapshot
+	 */
+	static MachineMoveCost of(int[] rowClass, int[] columnClass, byte[][] table) {
+		return new ByteTable(rowClass, columnClass, table);
+	}
+
+	/**
+	 * Rebuilds an int table from its classes, e.g. from a snapshot
+	 */
+	static MachineMoveCost of(int[] rowClass, int[] columnClass, int[][] table) {
+		return new IntTable(rowClass, columnClass, table);
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + " [" + getNrRowClasses() + "x" + getNrColumnClasses() + " for "
+				+ getNrMachines() + " machines]";
+	}
+
+	/**
+	 * Table with costs in [0, 255]
+	 */
+	private static final class ByteTable extends MachineMoveCost {
+
+		private final byte[][] table; // [row class, column class]
+
+		ByteTable(int[] rowClass, int[] columnClass, byte[][] table) {
+			super(rowClass, columnClass);
+			this.table = table;
+		}
+
+		@Override
+		public int get(int from, int to) {
+			return table[rowClass[from]][columnClass[to]] & 0xFF;
+		}
+
+		@Override
+		int getClassCost(int row, int column) {
+			return table[row][column] & 0xFF;
+		}
+
+		@Override
+		boolean isByteTable() {
+			return true;
+		}
+
+		@Override
+		public int getNrRowClasses() {
+			return table.length;
+		}
+
+		@Override
+		public int getNrColumnClasses() {
+			return table.length == 0 ? 0 : table[0].length;
+		}
+	}
+
+	/**
+	 * Table with arbitrary int costs
+	 */
+	private static final class IntTable extends MachineMoveCost {
+
+		private final int[][] table; // [row class, column class]
+
+		IntTable(int[] rowClass, int[] columnClass, int[][] table) {
+			super(rowClass, columnClass);
+			this.table = table;
+		}
+
+		@Override
+		public int get(int from, int to) {
+			return table[rowClass[from]][columnClass[to]];
+		}
+
+		@Override
+		int getClassCost(int row, int column) {
+			return table[row][column];
+		}
+
+		@Override
+		boolean isByteTable() {
+			return false;
+		}
+
+		@Override
+		public int getNrRowClasses() {
+			return table.length;
+		}
+
+		@Override
+		public int getNrColumnClasses() {
+			return table.length == 0 ? 0 : table[0].length;
+		}
+	}
+
+	/**
+	 * Collects the rows of the matrix (possibly from several threads) and
+	 * builds the most compact representation.
+	 */
+	public static class Builder {
+
+		private final int nrMachines;
+		private final int[] rowClass;
+		private final List<Row> rows;
+		private final Map<Row, Integer> rowIds;
+
+		public Builder(int nrMachines) {
+			this.nrMachines = nrMachines;
+			this.rowClass = new int[nrMachines];
+			this.rows = new ArrayList<Row>();
+			this.rowIds = new HashMap<Row, Integer>();
+		}
+
+		/**
+		 * Sets the costs from a machine to all other machines. The costs array
+		 * is not kept, so it can be reused by the caller.
+		 * @param machine
+		 * @param costs
+		 */
+		public void setRow(int machine, int[] costs) {
+			Row row = new Row(costs);
+
+			synchronized (this) {
+				Integer id = rowIds.get(row);
+				if (id == null) {
+					id = rows.size();
+					rows.add(row);
+					rowIds.put(row, id);
+				}
+				rowClass[machine] = id;
+			}
+		}
+
+		public synchronized MachineMoveCost build() {
+			int[] columnClass = new int[nrMachines];
+			int nrColumnClasses = initColumnClasses(columnClass);
+
+			// a column class is represented by its first column
+			int[] representative = new int[nrColumnClasses];
+			for (int j = nrMachines - 1; j >= 0; j--) {
+				representative[columnClass[j]] = j;
+			}
+
+			boolean narrow = true;
+			for (Row row : rows) {
+				narrow &= row.bytes != null;
+			}
+
+			if (narrow) {
+				byte[][] table = new byte[rows.size()][nrColumnClasses];
+				for (int k = 0; k < rows.size(); k++) {
+					byte[] bytes = rows.get(k).bytes;
+					for (int c = 0; c < nrColumnClasses; c++) {
+						table[k][c] = bytes[representative[c]];
+					}
+				}
+				return new ByteTable(rowClass, columnClass, table);
+			} else {
+				int[][] table = new int[rows.size()][nrColumnClasses];
+				for (int k = 0; k < rows.size(); k++) {
+					Row row = rows.get(k);
+					for (int c = 0; c < nrColumnClasses; c++) {
+						table[k][c] = row.get(representative[c]);
+					}
+				}
+				return new IntTable(rowClass, columnClass, table);
+			}
+		}
+
+		/**
+		 * Groups the columns that are equal in every distinct row
+		 * @param columnClass filled with the column class per machine
+		 * @return the number of column classes
+		 */
+		private int initColumnClasses(int[] columnClass) {
+			// hash all columns in one row-major pass
+			long[] hash = new long[nrMachines];
+			for (Row row : rows) {
+				for (int j = 0; j < nrMachines; j++) {
+					hash[j] = 31 * hash[j] + row.get(j);
+				}
+			}
+
+			// first column of each class, classes with the same hash are chained
+			int[] representative = new int[nrMachines];
+			int[] nextWithSameHash = new int[nrMachines];
+			Map<Long, Integer> firstWithHash = new HashMap<Long, Integer>();
+			int nrColumnClasses = 0;
+
+			for (int j = 0; j < nrMachines; j++) {
+				Integer first = firstWithHash.get(hash[j]);
+				int c = first == null ? -1 : first;
+				int last = -1;
+				while (c != -1 && !equalColumns(representative[c], j)) {
+					last = c;
+					c = nextWithSameHash[c];
+				}
+				if (c == -1) {
+					c = nrColumnClasses++;
+					representative[c] = j;
+					nextWithSameHash[c] = -1;
+					if (last == -1) {
+						firstWithHash.put(hash[j], c);
+					} else {
+						nextWithSameHash[last] = c;
+					}
+				}
+				columnClass[j] = c;
+			}
+			return nrColumnClasses;
+		}
+
+		private boolean equalColumns(int j1, int j2) {
+			for (Row row : rows) {
+				if (row.get(j1) != row.get(j2))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A distinct row, stored as bytes when all costs are in [0, 255]
+	 */
+	private static final class Row {
+
+		private final byte[] bytes;
+		private final int[] ints;
+		private final int hash;
+
+		Row(int[] costs) {
+			boolean narrow = true;
+			for (int v : costs) {
+				narrow &= (v & ~0xFF) == 0;
+			}
+
+			if (narrow) {
+				bytes = new byte[costs.length];
+				for (int j = 0; j < costs.length; j++) {
+					bytes[j] = (byte) costs[j];
+				}
+				ints = null;
+				hash = Arrays.hashCode(bytes);
+			} else {
+				bytes = null;
+				ints = Arrays.copyOf(costs, costs.length);
+				hash = Arrays.hashCode(ints);
+			}
+		}
+
+		int get(int j) {
+			return bytes != null ? bytes[j] & 0xFF : ints[j];
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Row))
+				return false;
+			Row other = (Row) obj;
+			return hash == other.hash && Arrays.equals(bytes, other.bytes) && Arrays.equals(ints, other.ints);
+		}
+	}
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+/**
+ * Fenwick (binary indexed) tree over a weight per machine. Updating a weight
+ * and finding the machine at a cumulative weight are both O(log M), which
+ * makes roulette wheel selection of machines independent of the number of
+ * machines.
+ */
+final class MachineWeightTree {
+
+	private final int size;
+	private final int highestStep; // highest power of two <= size
+	private final long[] tree; // 1-based, tree[i] is the sum of the weights in (i - (i & -i), i]
+	private long total;
+
+	MachineWeightTree(long[] weights) {
+		this.size = weights.length;
+		this.highestStep = size == 0 ? 0 : Integer.highestOneBit(size);
+		this.tree = new long[size + 1];
+		for (int i = 1; i <= size; i++) {
+			tree[i] += weights[i - 1];
+			total += weights[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= size)
+				tree[parent] += tree[i];
+		}
+	}
+
+	MachineWeightTree(MachineWeightTree weights) {
+		this.size = weights.size;
+		this.highestStep = weights.highestStep;
+		this.tree = weights.tree.clone();
+		this.total = weights.total;
+	}
+
+	void copyFrom(MachineWeightTree weights) {
+		System.arraycopy(weights.tree, 0, tree, 0, tree.length);
+		total = weights.total;
+	}
+
+	void add(int machine, long change) {
+		total += change;
+		for (int i = machine + 1; i <= size; i += i & -i) {
+			tree[i] += change;
+		}
+	}
+
+	long total() {
+		return total;
+	}
+
+	/**
+	 * @param value a cumulative weight in [0, total)
+	 * @return the machine m for which the sum of the weights of the machines
+	 *         before m is <= value and the sum including m is > value
+	 */
+	int find(long value) {
+		int pos = 0;
+		for (int step = highestStep; step > 0; step >>= 1) {
+			int next = pos + step;
+			if (next <= size && tree[next] <= value) {
+				pos = next;
+				value -= tree[next];
+			}
+		}
+		// value >= total (rounding of the caller) selects the last machine
+		return Math.min(pos, size - 1);
+	}
+
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+/**
+ * The objective of an assignment split into its cost components. The
+ * components are weighted, so they add up to the total objective.
+ */
+public class ObjectiveBreakdown {
+
+	private final long loadCost;
+	private final long balanceCost;
+	private final long processMoveCost;
+	private final long serviceMoveCost;
+	private final long machineMoveCost;
+
+	public ObjectiveBreakdown(long loadCost, long balanceCost, long processMoveCost, long serviceMoveCost,
+			long machineMoveCost) {
+		this.loadCost = loadCost;
+		this.balanceCost = balanceCost;
+		this.processMoveCost = processMoveCost;
+		this.serviceMoveCost = serviceMoveCost;
+		this.machineMoveCost = machineMoveCost;
+	}
+
+	public long getLoadCost() {
+		return loadCost;
+	}
+
+	public long getBalanceCost() {
+		return balanceCost;
+	}
+
+	public long getProcessMoveCost() {
+		return processMoveCost;
+	}
+
+	public long getServiceMoveCost() {
+		return serviceMoveCost;
+	}
+
+	public long getMachineMoveCost() {
+		return machineMoveCost;
+	}
+
+	public long getTotal() {
+		return loadCost + balanceCost + processMoveCost + serviceMoveCost + machineMoveCost;
+	}
+
+	@Override
+	public String toString() {
+		return "ObjectiveBreakdown [total=" + getTotal() + ", loadCost=" + loadCost + ", balanceCost=" + balanceCost
+				+ ", processMoveCost=" + processMoveCost + ", serviceMoveCost=" + serviceMoveCost
+				+ ", machineMoveCost=" + machineMoveCost + "]";
+	}
+
+}
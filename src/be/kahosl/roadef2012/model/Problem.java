@@ -17,6 +17,7 @@ package be.kahosl.roadef2012.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -24,7 +25,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class for loading problem instances. Holds all instance specific, static, information
@@ -42,9 +46,10 @@ public class Problem {
     public int nrBalanceObj;
     public int totalNrOfDependencies;
 
-    public long[][] cap; //[machine, resource] capacity of a specific resource on a machine 
-    public long[][] safetyCap; //[machine, resource] safety capacity of a specific resource on a machine 
-    public long[][] processReq; //[process, resource] resource requirement of a specific process
+    // resource data is stored flat, row by row, for cache friendly loops over the resources
+    public long[] cap; //[machine*nrResources + resource] capacity of a specific resource on a machine 
+    public long[] safetyCap; //[machine*nrResources + resource] safety capacity of a specific resource on a machine 
+    public long[] processReq; //[process*nrResources + resource] resource requirement of a specific process
 
     public int[][] services;  // [service] list of processes (ids ) in a service
     public int[] processServiceMap; // [process] per process, the service id it belongs to
@@ -64,7 +69,7 @@ public class Problem {
     public int[] serviceSpreadMin;  // [service] the minimum spread for each service
 
     public int[] processMoveCost;  // [process] moveCost per process
-    public int[][] machineMoveCost; // [machine, machine] moveCost between two machines
+    public MachineMoveCost machineMoveCost; // [machine, machine] moveCost between two machines
 
     public int[] resourceLoadCostWeight;
     public int[] balanceObjWeight;
@@ -72,129 +77,145 @@ public class Problem {
     public int serviceMoveCostWeight;
     public int machineMoveCostWeight;
 
+    // minimum number of machineMoveCost rows per parser thread
+    private static final int MIN_ROWS_PER_TASK = 500;
+
     public static Problem loadProblem(File file) throws IOException {
         
+        if(ProblemSnapshot.isSnapshot(file)) {
+            return ProblemSnapshot.read(file);
+        }
+        
         Problem problem = new Problem();
-        Scanner sc = null;
+        TokenReader in = TokenReader.open(file);
         
-        try {
-            sc = new Scanner(file);
-            
-            loadResources(problem, sc);        
-            loadMachines(problem, sc);         
-            loadServices(problem, sc);        
-            loadProcesses(problem, sc);
-            loadBalanceObjectives(problem, sc);           
-            loadWeights(problem, sc);
-            
-            return problem;
-        } finally {
-            if(sc != null)
-                sc.close();
-        }
+        loadResources(problem, in);        
+        loadMachines(problem, in);         
+        loadServices(problem, in);        
+        loadProcesses(problem, in);
+        loadBalanceObjectives(problem, in);           
+        loadWeights(problem, in);
         
+        return problem;
     }
 
-    private static void loadWeights(Problem problem, Scanner sc) {
-        problem.processMoveCostWeight = sc.nextInt();
-        problem.serviceMoveCostWeight = sc.nextInt();
-        problem.machineMoveCostWeight = sc.nextInt();
+    private static void loadWeights(Problem problem, TokenReader in) {
+        problem.processMoveCostWeight = in.nextInt();
+        problem.serviceMoveCostWeight = in.nextInt();
+        problem.machineMoveCostWeight = in.nextInt();
     }
 
-    private static void loadBalanceObjectives(Problem problem, Scanner sc) {
-        problem.nrBalanceObj = sc.nextInt();
+    private static void loadBalanceObjectives(Problem problem, TokenReader in) {
+        problem.nrBalanceObj = in.nextInt();
         problem.balanceObj = new int[problem.nrBalanceObj][];
         problem.balanceObjWeight = new int[problem.nrBalanceObj];
         
         for(int i = 0; i<problem.nrBalanceObj; i++) {
             
-            int r1 = sc.nextInt();
-            int r2 = sc.nextInt();
-            int target = sc.nextInt();
+            int r1 = in.nextInt();
+            int r2 = in.nextInt();
+            int target = in.nextInt();
             
             problem.balanceObj[i] = new int[] {r1,r2,target};
-            problem.balanceObjWeight[i] = sc.nextInt();
+            problem.balanceObjWeight[i] = in.nextInt();
         }
     }
 
-    private static void loadProcesses(Problem problem, Scanner sc) {
-        problem.nrProcesses = sc.nextInt();
+    private static void loadProcesses(Problem problem, TokenReader in) {
+        problem.nrProcesses = in.nextInt();
         problem.processServiceMap = new int[problem.nrProcesses];
-        problem.processReq = new long[problem.nrProcesses][problem.nrResources];
+        problem.processReq = new long[problem.nrProcesses * problem.nrResources];
         problem.processMoveCost = new int[problem.nrProcesses];
-        problem.services = new int[problem.nrServices][];
         
         for(int i = 0; i<problem.nrProcesses; i++) {
-            problem.processServiceMap[i] = sc.nextInt();
+            problem.processServiceMap[i] = in.nextInt();
             
             for(int j = 0; j<problem.nrResources; j++) {
-                problem.processReq[i][j] = sc.nextLong();
+                problem.processReq[i*problem.nrResources+j] = in.nextLong();
             }
             
-            problem.processMoveCost[i] = sc.nextInt();
+            problem.processMoveCost[i] = in.nextInt();
         }
         
+        initServices(problem);
+    }
+
+    /**
+     * Builds the list of processes per service from processServiceMap
+     */
+    static void initServices(Problem problem) {
+        problem.services = new int[problem.nrServices][];
+        int[] serviceSize = new int[problem.nrServices];
+        for(int j = 0; j<problem.nrProcesses; j++) {
+            serviceSize[problem.processServiceMap[j]]++;
+        }
         for(int i = 0; i<problem.nrServices; i++) {
-            
-            problem.services[i] = new int[problem.nrProcesses];
-            
-            int index = 0;
-            for(int j = 0; j<problem.nrProcesses; j++) {
-                if(problem.processServiceMap[j] == i) {
-                    problem.services[i][index++] = j;
-                }
-            }
-            
-            problem.services[i] = Arrays.copyOf(problem.services[i], index);        
+            problem.services[i] = new int[serviceSize[i]];
+            serviceSize[i] = 0;
+        }
+        for(int j = 0; j<problem.nrProcesses; j++) {
+            int s = problem.processServiceMap[j];
+            problem.services[s][serviceSize[s]++] = j;
         }
     }
 
-    private static void loadServices(Problem problem, Scanner sc) {
-        problem.nrServices = sc.nextInt();
+    private static void loadServices(Problem problem, TokenReader in) {
+        problem.nrServices = in.nextInt();
         problem.serviceSpreadMin = new int[problem.nrServices];
         problem.serviceDependencies = new int[problem.nrServices][];
         
         for(int i = 0; i<problem.nrServices; i++) {
-            problem.serviceSpreadMin[i] = sc.nextInt();
+            problem.serviceSpreadMin[i] = in.nextInt();
             
-            int dependencies = sc.nextInt();
+            int dependencies = in.nextInt();
             problem.totalNrOfDependencies+=dependencies;
             problem.serviceDependencies[i] = new int[dependencies];
             
             for(int j = 0; j<dependencies; j++) {
-                problem.serviceDependencies[i][j] = sc.nextInt();
+                problem.serviceDependencies[i][j] = in.nextInt();
             }
             
         }
     }
 
-    private static void loadMachines(Problem problem, Scanner sc) {
-        problem.nrMachines = sc.nextInt();
+    private static void loadMachines(Problem problem, TokenReader in) throws IOException {
+        problem.nrMachines = in.nextInt();
         problem.machineNeighbourhoodMap = new int[problem.nrMachines];
         problem.machineLocationMap = new int[problem.nrMachines];
-        problem.cap = new long[problem.nrMachines][problem.nrResources];
-        problem.safetyCap = new long[problem.nrMachines][problem.nrResources];
-        problem.machineMoveCost = new int[problem.nrMachines][problem.nrMachines];
-        
-        problem.nrLocations = 0;
-        problem.nrNeighbourhoods = 0;
+        problem.cap = new long[problem.nrMachines * problem.nrResources];
+        problem.safetyCap = new long[problem.nrMachines * problem.nrResources];
+        int[] rowOffsets = new int[problem.nrMachines];
         
         for(int i = 0; i<problem.nrMachines; i++) {
-            problem.machineNeighbourhoodMap[i] = sc.nextInt();
-            problem.machineLocationMap[i] = sc.nextInt();
-            
-            problem.nrNeighbourhoods = Math.max(problem.nrNeighbourhoods, problem.machineNeighbourhoodMap[i]+1);
-            problem.nrLocations = Math.max(problem.nrLocations, problem.machineLocationMap[i]+1);
+            problem.machineNeighbourhoodMap[i] = in.nextInt();
+            problem.machineLocationMap[i] = in.nextInt();
             
             for(int j = 0; j<problem.nrResources; j++) {
-                problem.cap[i][j] = sc.nextLong();
+                problem.cap[i*problem.nrResources+j] = in.nextLong();
             }
             for(int j = 0; j<problem.nrResources; j++) {
-                problem.safetyCap[i][j] = sc.nextLong();
-            }
-            for(int j = 0; j<problem.nrMachines; j++) {
-                problem.machineMoveCost[i][j] = sc.nextInt();
+                problem.safetyCap[i*problem.nrResources+j] = in.nextLong();
             }
+            // only remember where the moveCost row starts, rows are parsed afterwards
+            rowOffsets[i] = in.position();
+            in.skip(problem.nrMachines);
+        }
+        
+        problem.machineMoveCost = loadMachineMoveCosts(problem, in, rowOffsets);
+        
+        initNeighbourhoodsAndLocations(problem);
+    }
+
+    /**
+     * Builds the machine lists per neighbourhood and location from machineNeighbourhoodMap and machineLocationMap
+     */
+    static void initNeighbourhoodsAndLocations(Problem problem) {
+        problem.nrLocations = 0;
+        problem.nrNeighbourhoods = 0;
+        
+        for(int i = 0; i<problem.nrMachines; i++) {
+            problem.nrNeighbourhoods = Math.max(problem.nrNeighbourhoods, problem.machineNeighbourhoodMap[i]+1);
+            problem.nrLocations = Math.max(problem.nrLocations, problem.machineLocationMap[i]+1);
         }
         
         problem.neighbourhoods = new int[problem.nrNeighbourhoods][];
@@ -245,23 +266,83 @@ public class Problem {
         }
     }
 
-    private static void loadResources(Problem problem, Scanner sc) {
-        problem.nrResources = sc.nextInt();
-        problem.transientResources = new int[problem.nrResources];
+    /**
+     * Parses the machineMoveCost rows, in parallel chunks for larger instances
+     */
+    private static MachineMoveCost loadMachineMoveCosts(final Problem problem, final TokenReader in, final int[] rowOffsets) throws IOException {
+        final MachineMoveCost.Builder builder = new MachineMoveCost.Builder(problem.nrMachines);
+        
+        int nrTasks = Math.min(Runtime.getRuntime().availableProcessors(), problem.nrMachines / MIN_ROWS_PER_TASK);
+        if(nrTasks <= 1) {
+            loadMachineMoveCostRows(problem, builder, in, rowOffsets, 0, problem.nrMachines);
+            return builder.build();
+        }
+        
+        ExecutorService es = Executors.newFixedThreadPool(nrTasks);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>(nrTasks);
+            int chunk = (problem.nrMachines + nrTasks - 1) / nrTasks;
+            for(int from = 0; from<problem.nrMachines; from += chunk) {
+                final int start = from;
+                final int end = Math.min(problem.nrMachines, from + chunk);
+                results.add(es.submit(new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        loadMachineMoveCostRows(problem, builder, in, rowOffsets, start, end);
+                    }
+                }));
+            }
+            for(Future<?> result : results) {
+                result.get();
+            }
+            return builder.build();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while parsing machine move costs");
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            es.shutdown();
+        }
+    }
+    
+    private static void loadMachineMoveCostRows(Problem problem, MachineMoveCost.Builder builder, TokenReader in, int[] rowOffsets, int from, int to) {
+        int[] costs = new int[problem.nrMachines];
+        for(int i = from; i<to; i++) {
+            TokenReader row = in.at(rowOffsets[i]);
+            for(int j = 0; j<problem.nrMachines; j++) {
+                costs[j] = row.nextInt();
+            }
+            builder.setRow(i, costs);
+        }
+    }
+
+    private static void loadResources(Problem problem, TokenReader in) {
+        problem.nrResources = in.nextInt();
         problem.transientResourceMap = new boolean[problem.nrResources];
         problem.resourceLoadCostWeight = new int[problem.nrResources];
         
+        for(int i = 0; i<problem.nrResources; i++) {
+            problem.transientResourceMap[i] = in.nextInt() == 1;
+            problem.resourceLoadCostWeight[i] = in.nextInt();
+        }
+        
+        initTransientResources(problem);
+    }
+
+    /**
+     * Builds the list of transient resources from transientResourceMap
+     */
+    static void initTransientResources(Problem problem) {
+        problem.transientResources = new int[problem.nrResources];
+        
         int index = 0;
         for(int i = 0; i<problem.nrResources; i++) {
-            if(sc.nextInt() == 1) {
+            if(problem.transientResourceMap[i]) {
                 problem.transientResources[index++] = i;
-                problem.transientResourceMap[i] = true;
-            } else {
-                problem.transientResourceMap[i] = false;
             }
-            
-            problem.resourceLoadCostWeight[i] = sc.nextInt();
-            
         }
         problem.transientResources = Arrays.copyOf(problem.transientResources, index);
         problem.nrTransientResources = index;
@@ -289,6 +370,8 @@ public class Problem {
 		builder.append(nrBalanceObj);
 		builder.append("\n\ttotalNrOfDependencies=");
 		builder.append(totalNrOfDependencies);
+		builder.append("\n\tmachineMoveCost=");
+		builder.append(machineMoveCost);
 		builder.append("\n]");
 		return builder.toString();
 	}    
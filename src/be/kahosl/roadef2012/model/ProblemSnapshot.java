@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Compact binary snapshot of a loaded {@link Problem}. A snapshot is written
+ * once from a parsed instance and can afterwards be loaded instead of the text
+ * file: the file is memory mapped and all arrays are filled with bulk copies,
+ * so no parsing is needed at all. Since the file is mapped read-only, solver
+ * processes on the same machine share its page cache copy.
+ *
+ * Only the data of the instance file is stored, all derived structures
+ * (neighbourhoods, locations, services, ...) are rebuilt on load. The machine
+ * move costs are stored in their compressed form, as the row and column class
+ * per machine and the table of class costs, so the dense matrix is never
+ * written or read. All values are little endian.
+ *
+ */
+public class ProblemSnapshot {
+
+	private static final int MAGIC = 0x5041524D; // "MRAP"
+	private static final int VERSION = 2;
+
+	// size of the file region that is mapped at once when reading
+	private static final long WINDOW_SIZE = 64L << 20;
+
+	public static boolean isSnapshot(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < 4)
+				return false;
+			return Integer.reverseBytes(raf.readInt()) == MAGIC;
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static void write(Problem problem, File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			SnapshotWriter out = new SnapshotWriter(raf.getChannel());
+
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+
+			// resources
+			out.putInt(problem.nrResources);
+			for (int r = 0; r < problem.nrResources; r++) {
+				out.putInt(problem.transientResourceMap[r] ? 1 : 0);
+			}
+			out.putInts(problem.resourceLoadCostWeight);
+
+			// machines
+			out.putInt(problem.nrMachines);
+			out.putInts(problem.machineNeighbourhoodMap);
+			out.putInts(problem.machineLocationMap);
+			out.putLongs(problem.cap);
+			out.putLongs(problem.safetyCap);
+			MachineMoveCost machineMoveCost = problem.machineMoveCost;
+			out.putInts(machineMoveCost.rowClass);
+			out.putInts(machineMoveCost.columnClass);
+			out.putInt(machineMoveCost.getNrRowClasses());
+			out.putInt(machineMoveCost.getNrColumnClasses());
+			out.putInt(machineMoveCost.isByteTable() ? 1 : 0);
+			for (int row = 0; row < machineMoveCost.getNrRowClasses(); row++) {
+				for (int column = 0; column < machineMoveCost.getNrColumnClasses(); column++) {
+					if (machineMoveCost.isByteTable()) {
+						out.putByte((byte) machineMoveCost.getClassCost(row, column));
+					} else {
+						out.putInt(machineMoveCost.getClassCost(row, column));
+					}
+				}
+			}
+
+			// services
+			out.putInt(problem.nrServices);
+			out.putInts(problem.serviceSpreadMin);
+			for (int s = 0; s < problem.nrServices; s++) {
+				out.putInt(problem.serviceDependencies[s].length);
+			}
+			for (int s = 0; s < problem.nrServices; s++) {
+				out.putInts(problem.serviceDependencies[s]);
+			}
+
+			// processes
+			out.putInt(problem.nrProcesses);
+			out.putInts(problem.processServiceMap);
+			out.putLongs(problem.processReq);
+			out.putInts(problem.processMoveCost);
+
+			// balance objectives
+			out.putInt(problem.nrBalanceObj);
+			for (int b = 0; b < problem.nrBalanceObj; b++) {
+				out.putInts(problem.balanceObj[b]);
+			}
+			out.putInts(problem.balanceObjWeight);
+
+			// weights
+			out.putInt(problem.processMoveCostWeight);
+			out.putInt(problem.serviceMoveCostWeight);
+			out.putInt(problem.machineMoveCostWeight);
+
+			out.flush();
+		} finally {
+			raf.close();
+		}
+	}
+
+	public static Problem read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			SnapshotReader in = new SnapshotReader(raf.getChannel());
+
+			if (in.getInt() != MAGIC)
+				throw new IOException(file + " is not a problem snapshot");
+			int version = in.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported snapshot version " + version + " in " + file);
+
+			Problem problem = new Problem();
+
+			// resources
+			problem.nrResources = in.getInt();
+			problem.transientResourceMap = new boolean[problem.nrResources];
+			for (int r = 0; r < problem.nrResources; r++) {
+				problem.transientResourceMap[r] = in.getInt() == 1;
+			}
+			problem.resourceLoadCostWeight = in.getInts(problem.nrResources);
+			Problem.initTransientResources(problem);
+
+			// machines
+			problem.nrMachines = in.getInt();
+			problem.machineNeighbourhoodMap = in.getInts(problem.nrMachines);
+			problem.machineLocationMap = in.getInts(problem.nrMachines);
+			problem.cap = in.getLongs(problem.nrMachines * problem.nrResources);
+			problem.safetyCap = in.getLongs(problem.nrMachines * problem.nrResources);
+			int[] rowClass = in.getInts(problem.nrMachines);
+			int[] columnClass = in.getInts(problem.nrMachines);
+			int nrRowClasses = in.getInt();
+			int nrColumnClasses = in.getInt();
+			if (in.getInt() == 1) {
+				byte[][] table = new byte[nrRowClasses][nrColumnClasses];
+				for (int row = 0; row < nrRowClasses; row++) {
+					in.getBytes(table[row]);
+				}
+				problem.machineMoveCost = MachineMoveCost.of(rowClass, columnClass, table);
+			} else {
+				int[][] table = new int[nrRowClasses][];
+				for (int row = 0; row < nrRowClasses; row++) {
+					table[row] = in.getInts(nrColumnClasses);
+				}
+				problem.machineMoveCost = MachineMoveCost.of(rowClass, columnClass, table);
+			}
+			Problem.initNeighbourhoodsAndLocations(problem);
+
+			// services
+			problem.nrServices = in.getInt();
+			problem.serviceSpreadMin = in.getInts(problem.nrServices);
+			int[] nrDependencies = in.getInts(problem.nrServices);
+			problem.serviceDependencies = new int[problem.nrServices][];
+			problem.totalNrOfDependencies = 0;
+			for (int s = 0; s < problem.nrServices; s++) {
+				problem.serviceDependencies[s] = in.getInts(nrDependencies[s]);
+				problem.totalNrOfDependencies += nrDependencies[s];
+			}
+
+			// processes
+			problem.nrProcesses = in.getInt();
+			problem.processServiceMap = in.getInts(problem.nrProcesses);
+			problem.processReq = in.getLongs(problem.nrProcesses * problem.nrResources);
+			problem.processMoveCost = in.getInts(problem.nrProcesses);
+			Problem.initServices(problem);
+
+			// balance objectives
+			problem.nrBalanceObj = in.getInt();
+			problem.balanceObj = new int[problem.nrBalanceObj][];
+			for (int b = 0; b < problem.nrBalanceObj; b++) {
+				problem.balanceObj[b] = in.getInts(3);
+			}
+			problem.balanceObjWeight = in.getInts(problem.nrBalanceObj);
+
+			// weights
+			problem.processMoveCostWeight = in.getInt();
+			problem.serviceMoveCostWeight = in.getInt();
+			problem.machineMoveCostWeight = in.getInt();
+
+			return problem;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Buffered little endian writer on a file channel
+	 */
+	private static class SnapshotWriter {
+
+		private final FileChannel channel;
+		private final ByteBuffer buffer;
+
+		SnapshotWriter(FileChannel channel) {
+			this.channel = channel;
+			this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		void putByte(byte value) throws IOException {
+			ensureRemaining(1);
+			buffer.put(value);
+		}
+
+		void putInt(int value) throws IOException {
+			ensureRemaining(4);
+			buffer.putInt(value);
+		}
+
+		void putInts(int[] values) throws IOException {
+			for (int v : values) {
+				putInt(v);
+			}
+		}
+
+		void putLongs(long[] values) throws IOException {
+			for (long v : values) {
+				ensureRemaining(8);
+				buffer.putLong(v);
+			}
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+
+		private void ensureRemaining(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+	}
+
+	/**
+	 * Little endian reader that maps the file in windows (a single mapping is
+	 * limited to 2GB) and copies arrays in bulk from the mapped region
+	 */
+	private static class SnapshotReader {
+
+		private final FileChannel channel;
+		private final long size;
+
+		private MappedByteBuffer window;
+		private long windowStart;
+		private long offset;
+
+		SnapshotReader(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		int getInt() throws IOException {
+			return region(4).getInt();
+		}
+
+		int[] getInts(int n) throws IOException {
+			int[] values = new int[n];
+			getInts(values);
+			return values;
+		}
+
+		void getInts(int[] values) throws IOException {
+			region(4L * values.length).asIntBuffer().get(values);
+		}
+
+		void getBytes(byte[] values) throws IOException {
+			region(values.length).get(values);
+		}
+
+		long[] getLongs(int n) throws IOException {
+			long[] values = new long[n];
+			region(8L * n).asLongBuffer().get(values);
+			return values;
+		}
+
+		/**
+		 * @return a buffer positioned at the current offset with at least the
+		 *         given number of bytes available, and advances the offset
+		 */
+		private ByteBuffer region(long bytes) throws IOException {
+			if (offset + bytes > size)
+				throw new IOException("Unexpected end of snapshot at offset " + offset);
+
+			if (window == null || offset + bytes > windowStart + window.capacity()) {
+				windowStart = offset;
+				window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+						Math.min(size - windowStart, Math.max(bytes, WINDOW_SIZE)));
+			}
+
+			ByteBuffer region = window.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+			region.position((int) (offset - windowStart));
+			offset += bytes;
+			return region;
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Groups the processes by the neighbourhood they run in and by their
+ * quantized requirement of one resource, to sample swap partners.
+ *
+ * The requirement of a process is quantized in power-of-two buckets: bucket 0
+ * holds the processes without requirement, bucket b > 0 those with a
+ * requirement in [2^(b-1), 2^b). Per neighbourhood the processes are kept in
+ * one array ordered by bucket (like the machines in {@link SlackIndex}), so the
+ * processes up to a bucket are a prefix that is sampled in O(1). Moving a
+ * process to another neighbourhood swaps it over the bucket boundaries.
+ */
+final class ProcessProfileIndex {
+
+	private final int[] processBucket; // [process], static, shared between copies
+	private final int nrOfBuckets; // highest bucket of any process + 1
+
+	private int[][] processes; // [neighbourhood], ordered by bucket
+	private final int[] bucketStart; // [neighbourhood*(nrOfBuckets+1)+bucket], the last entry of a neighbourhood is its number of processes
+	private final int[] position; // [process], index in the array of its neighbourhood
+
+	ProcessProfileIndex(long[] requirement, int[] neighbourhood, int nrNeighbourhoods) {
+		int nrProcesses = requirement.length;
+		processBucket = new int[nrProcesses];
+		position = new int[nrProcesses];
+
+		int highest = 0;
+		int[] size = new int[nrNeighbourhoods];
+		for (int p = 0; p < nrProcesses; p++) {
+			processBucket[p] = bucketOf(requirement[p]);
+			highest = Math.max(highest, processBucket[p]);
+			size[neighbourhood[p]]++;
+		}
+		nrOfBuckets = highest + 1;
+
+		processes = new int[nrNeighbourhoods][];
+		for (int n = 0; n < nrNeighbourhoods; n++) {
+			processes[n] = new int[Math.max(size[n], 1)];
+		}
+		bucketStart = new int[nrNeighbourhoods * (nrOfBuckets + 1)];
+		for (int p = 0; p < nrProcesses; p++) {
+			add(p, neighbourhood[p]);
+		}
+	}
+
+	ProcessProfileIndex(ProcessProfileIndex index) {
+		this.processBucket = index.processBucket;
+		this.nrOfBuckets = index.nrOfBuckets;
+		this.processes = new int[index.processes.length][];
+		for (int n = 0; n < processes.length; n++) {
+			processes[n] = index.processes[n].clone();
+		}
+		this.bucketStart = index.bucketStart.clone();
+		this.position = index.position.clone();
+	}
+
+	void copyFrom(ProcessProfileIndex index) {
+		for (int n = 0; n < processes.length; n++) {
+			int size = index.size(n);
+			if (processes[n].length < size) {
+				processes[n] = new int[index.processes[n].length];
+			}
+			System.arraycopy(index.processes[n], 0, processes[n], 0, size);
+		}
+		System.arraycopy(index.bucketStart, 0, bucketStart, 0, bucketStart.length);
+		System.arraycopy(index.position, 0, position, 0, position.length);
+	}
+
+	void move(int process, int from, int to) {
+		remove(process, from);
+		add(process, to);
+	}
+
+	/**
+	 * @return a random process in the neighbourhood with a requirement of at
+	 *         most maxRequirement, or -1 if there is none
+	 */
+	int sample(int neighbourhood, long maxRequirement, Random rand) {
+		if (maxRequirement < 0)
+			return -1;
+		// highest bucket whose requirements are all at most maxRequirement
+		int last = maxRequirement == Long.MAX_VALUE ? nrOfBuckets - 1
+				: Math.min(nrOfBuckets - 1, 63 - Long.numberOfLeadingZeros(maxRequirement + 1));
+		int end = bucketStart[neighbourhood * (nrOfBuckets + 1) + last + 1];
+		if (end == 0)
+			return -1;
+		return processes[neighbourhood][rand.nextInt(end)];
+	}
+
+	private void add(int process, int neighbourhood) {
+		int base = neighbourhood * (nrOfBuckets + 1);
+		int size = bucketStart[base + nrOfBuckets];
+		if (size == processes[neighbourhood].length) {
+			processes[neighbourhood] = Arrays.copyOf(processes[neighbourhood], 2 * size);
+		}
+		// append the process as the last one of the highest bucket, then swap it down
+		processes[neighbourhood][size] = process;
+		position[process] = size;
+		bucketStart[base + nrOfBuckets]++;
+		for (int b = nrOfBuckets - 1; b > processBucket[process]; b--) {
+			swap(neighbourhood, process, processes[neighbourhood][bucketStart[base + b]]);
+			bucketStart[base + b]++;
+		}
+	}
+
+	private void remove(int process, int neighbourhood) {
+		int base = neighbourhood * (nrOfBuckets + 1);
+		// swap the process up to the end of the array and drop it
+		for (int b = processBucket[process]; b < nrOfBuckets; b++) {
+			swap(neighbourhood, process, processes[neighbourhood][bucketStart[base + b + 1] - 1]);
+			bucketStart[base + b + 1]--;
+		}
+	}
+
+	private void swap(int neighbourhood, int p1, int p2) {
+		int i1 = position[p1];
+		int i2 = position[p2];
+		processes[neighbourhood][i1] = p2;
+		processes[neighbourhood][i2] = p1;
+		position[p1] = i2;
+		position[p2] = i1;
+	}
+
+	private int size(int neighbourhood) {
+		return bucketStart[neighbourhood * (nrOfBuckets + 1) + nrOfBuckets];
+	}
+
+	private static int bucketOf(long requirement) {
+		return requirement <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(requirement);
+	}
+
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.util.Arrays;
+
+/**
+ * Counts the processes of each service per machine, for O(1) conflict checks.
+ *
+ * Only the (service, machine) pairs that are in use are stored, in an open
+ * addressing hash table with linear probing. Since each process occupies one
+ * pair, the table never holds more than nrProcesses entries and is sized for
+ * that up front, so updates never allocate. The pair and its count are packed
+ * in a single long, so a lookup usually touches one cache line.
+ */
+final class ServiceMachineOccupancy {
+
+	private static final int COUNT_BITS = 24;
+	private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+	private static final long EMPTY = -1;
+
+	private final int nrMachines;
+	private final int mask;
+	private final long[] entries; // (service*nrMachines + machine) << COUNT_BITS | count, or EMPTY
+
+	ServiceMachineOccupancy(int nrServices, int nrMachines, int nrProcesses) {
+		if ((long) nrServices * nrMachines >= 1L << (63 - COUNT_BITS) || nrProcesses > COUNT_MASK)
+			throw new IllegalArgumentException("Problem too large for the service occupancy index");
+		this.nrMachines = nrMachines;
+
+		// keep the load factor at or below 1/2
+		int capacity = 16;
+		while (capacity < 2 * nrProcesses) {
+			capacity <<= 1;
+		}
+		this.mask = capacity - 1;
+		this.entries = new long[capacity];
+		Arrays.fill(entries, EMPTY);
+	}
+
+	ServiceMachineOccupancy(ServiceMachineOccupancy occupancy) {
+		this.nrMachines = occupancy.nrMachines;
+		this.mask = occupancy.mask;
+		this.entries = occupancy.entries.clone();
+	}
+
+	void copyFrom(ServiceMachineOccupancy occupancy) {
+		System.arraycopy(occupancy.entries, 0, entries, 0, entries.length);
+	}
+
+	/**
+	 * @return the number of processes of the service on the machine
+	 */
+	int get(int service, int machine) {
+		long key = (long) service * nrMachines + machine;
+		for (int i = home(key);; i = (i + 1) & mask) {
+			long entry = entries[i];
+			if (entry == EMPTY)
+				return 0;
+			if (entry >>> COUNT_BITS == key)
+				return (int) (entry & COUNT_MASK);
+		}
+	}
+
+	void increment(int service, int machine) {
+		long key = (long) service * nrMachines + machine;
+		int i = home(key);
+		while (entries[i] != EMPTY && entries[i] >>> COUNT_BITS != key) {
+			i = (i + 1) & mask;
+		}
+		entries[i] = entries[i] == EMPTY ? key << COUNT_BITS | 1 : entries[i] + 1;
+	}
+
+	void decrement(int service, int machine) {
+		long key = (long) service * nrMachines + machine;
+		int i = home(key);
+		while (entries[i] >>> COUNT_BITS != key) {
+			if (entries[i] == EMPTY)
+				throw new IllegalStateException("No process of service " + service + " on machine " + machine);
+			i = (i + 1) & mask;
+		}
+		if ((--entries[i] & COUNT_MASK) == 0) {
+			remove(i);
+		}
+	}
+
+	/**
+	 * Removes the entry in slot i, shifting back the entries of the same
+	 * probe sequence so that no tombstones are needed
+	 */
+	private void remove(int i) {
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (entries[j] == EMPTY)
+				break;
+			int k = home(entries[j] >>> COUNT_BITS);
+			// the entry in j can stay if its home slot lies cyclically in (i, j]
+			if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+				continue;
+			entries[i] = entries[j];
+			i = j;
+		}
+		entries[i] = EMPTY;
+	}
+
+	private int home(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.util.Random;
+
+/**
+ * Buckets the machines by their remaining capacity (slack) of one resource,
+ * to sample machines that have room for a given requirement.
+ *
+ * Bucket b > 0 holds the machines with a slack in [2^(b-1), 2^b), bucket 0
+ * those without slack. The machines are kept in one array ordered by bucket,
+ * so the machines of all buckets from b on are a suffix of it and can be
+ * sampled uniformly in O(1). Moving a machine to another bucket swaps it over
+ * the bucket boundaries in between, so an update costs at most 64 swaps.
+ */
+final class SlackIndex {
+
+	private static final int NR_OF_BUCKETS = 65;
+
+	private final int[] machines; // ordered by bucket
+	private final int[] position; // [machine], index in machines
+	private final int[] bucket; // [machine]
+	private final int[] bucketStart; // [bucket], index of the first machine of the bucket, bucketStart[NR_OF_BUCKETS] = nrMachines
+
+	SlackIndex(long[] slack) {
+		int nrMachines = slack.length;
+		machines = new int[nrMachines];
+		position = new int[nrMachines];
+		bucket = new int[nrMachines];
+		bucketStart = new int[NR_OF_BUCKETS + 1];
+
+		// counting sort of the machines by bucket
+		for (int m = 0; m < nrMachines; m++) {
+			bucket[m] = bucketOf(slack[m]);
+			bucketStart[bucket[m] + 1]++;
+		}
+		for (int b = 0; b < NR_OF_BUCKETS; b++) {
+			bucketStart[b + 1] += bucketStart[b];
+		}
+		int[] next = bucketStart.clone();
+		for (int m = 0; m < nrMachines; m++) {
+			position[m] = next[bucket[m]]++;
+			machines[position[m]] = m;
+		}
+	}
+
+	SlackIndex(SlackIndex index) {
+		this.machines = index.machines.clone();
+		this.position = index.position.clone();
+		this.bucket = index.bucket.clone();
+		this.bucketStart = index.bucketStart.clone();
+	}
+
+	void copyFrom(SlackIndex index) {
+		System.arraycopy(index.machines, 0, machines, 0, machines.length);
+		System.arraycopy(index.position, 0, position, 0, position.length);
+		System.arraycopy(index.bucket, 0, bucket, 0, bucket.length);
+		System.arraycopy(index.bucketStart, 0, bucketStart, 0, bucketStart.length);
+	}
+
+	void update(int machine, long slack) {
+		int to = bucketOf(slack);
+		int b = bucket[machine];
+		// swap the machine to the boundary of its bucket and move the boundary over it
+		while (b < to) {
+			swap(machine, machines[bucketStart[b + 1] - 1]);
+			bucketStart[b + 1]--;
+			b++;
+		}
+		while (b > to) {
+			swap(machine, machines[bucketStart[b]]);
+			bucketStart[b]++;
+			b--;
+		}
+		bucket[machine] = to;
+	}
+
+	/**
+	 * @return a random machine with a slack of at least the requirement, or a
+	 *         random machine if there is none
+	 */
+	int sample(long requirement, Random rand) {
+		// smallest bucket whose lower bound 2^(b-1) is at least the requirement
+		int b = requirement <= 0 ? 0 : 65 - Long.numberOfLeadingZeros(requirement - 1);
+		int first = b < NR_OF_BUCKETS ? bucketStart[b] : machines.length;
+		if (first == machines.length)
+			return rand.nextInt(machines.length);
+		return machines[first + rand.nextInt(machines.length - first)];
+	}
+
+	private void swap(int m1, int m2) {
+		int p1 = position[m1];
+		int p2 = position[m2];
+		machines[p1] = m2;
+		machines[p2] = m1;
+		position[m1] = p2;
+		position[m2] = p1;
+	}
+
+	private static int bucketOf(long slack) {
+		return slack <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(slack);
+	}
+
+}
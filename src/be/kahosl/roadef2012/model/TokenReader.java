@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2012 Wim Vancroonenburg, Tony Wauters, CODeS research group, KAHO Sint-Lieven, Gent, Belgium
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package be.kahosl.roadef2012.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+
+/**
+ * Allocation free tokenizer for the whitespace separated integer files of the
+ * challenge (instances and assignments). Works directly on the bytes of a
+ * memory mapped file, which is a lot faster than java.util.Scanner.
+ *
+ * Several readers can share the same buffer (see {@link #at(int)}), which
+ * allows independent parts of a file to be parsed in parallel.
+ */
+class TokenReader {
+
+	private final ByteBuffer buffer;
+	private final int limit;
+	private int pos;
+
+	private TokenReader(ByteBuffer buffer, int pos) {
+		this.buffer = buffer;
+		this.limit = buffer.limit();
+		this.pos = pos;
+	}
+
+	public static TokenReader open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mapping stays valid after the channel is closed
+			return new TokenReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), 0);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * @param position byte offset in the file
+	 * @return a new reader on the same file, starting at the given position
+	 */
+	public TokenReader at(int position) {
+		return new TokenReader(buffer, position);
+	}
+
+	/**
+	 * @return the current byte offset in the file
+	 */
+	public int position() {
+		return pos;
+	}
+
+	public boolean hasNext() {
+		skipWhitespace();
+		return pos < limit;
+	}
+
+	public int nextInt() {
+		long value = nextLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+			throw new InputMismatchException("Value out of int range at offset " + pos + ": " + value);
+		return (int) value;
+	}
+
+	public long nextLong() {
+		skipWhitespace();
+		if (pos >= limit)
+			throw new NoSuchElementException();
+
+		boolean negative = false;
+		byte b = buffer.get(pos);
+		if (b == '-') {
+			negative = true;
+			pos++;
+		}
+
+		int start = pos;
+		long value = 0;
+		while (pos < limit && (b = buffer.get(pos)) > ' ') {
+			if (b < '0' || b > '9')
+				throw new InputMismatchException("Unexpected character '" + (char) b + "' at offset " + pos);
+			value = value * 10 + (b - '0');
+			pos++;
+		}
+		if (pos == start)
+			throw new InputMismatchException("Missing digits at offset " + pos);
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Skips the next n tokens without parsing them
+	 * @param n
+	 */
+	public void skip(int n) {
+		for (int i = 0; i < n; i++) {
+			skipWhitespace();
+			if (pos >= limit)
+				throw new NoSuchElementException();
+			while (pos < limit && buffer.get(pos) > ' ') {
+				pos++;
+			}
+		}
+	}
+
+	private void skipWhitespace() {
+		while (pos < limit && buffer.get(pos) <= ' ') {
+			pos++;
+		}
+	}
+
+}